@@ -0,0 +1,96 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link PackageRemapper} lookups of class names, resource paths, string
+ * constants and descriptors. With <code>warm=false</code> every invocation
+ * starts from empty caches, which is what the first pass over a jar sees.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PackageRemapperBenchmark
+{
+    @Param({ "false", "true" })
+    public boolean warm;
+
+    private String[] paths;
+    private String[] values;
+    private String[] descs;
+    private PackageRemapper remapper;
+
+    @Setup(Level.Trial)
+    public void generate(RuleEngineState state) {
+        String[] names = state.classNames;
+        paths = new String[names.length];
+        values = new String[names.length];
+        descs = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i];
+            paths[i] = name.substring(0, name.lastIndexOf('/') + 1) + "messages.properties";
+            // string constants are a mix of class names, resource names and prose
+            switch (i % 3) {
+            case 0: values[i] = name.replace('/', '.'); break;
+            case 1: values[i] = paths[i]; break;
+            default: values[i] = "Unable to load " + name.substring(name.lastIndexOf('/') + 1) + ", retrying";
+            }
+            descs[i] = "(L" + name + ";I)[L" + name + ";";
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void reset(RuleEngineState state) {
+        if (!warm || remapper == null)
+            remapper = new PackageRemapper(state.rules, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RuleEngineState.NAMES)
+    public void map(RuleEngineState state, Blackhole bh) {
+        for (String name : state.classNames)
+            bh.consume(remapper.map(name));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RuleEngineState.NAMES)
+    public void mapPath(Blackhole bh) {
+        for (String path : paths)
+            bh.consume(remapper.mapPath(path));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RuleEngineState.NAMES)
+    public void mapValue(Blackhole bh) {
+        for (String value : values)
+            bh.consume(remapper.mapValue(value));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RuleEngineState.NAMES)
+    public void mapDesc(Blackhole bh) {
+        for (String desc : descs)
+            bh.consume(remapper.mapDesc(desc));
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.EntryStruct;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The per-entry pattern checks of {@link ZapProcessor} and
+ * {@link KeepProcessor}, using the generated rules as zap and keep patterns.
+ * Keep entries are empty classes so that the root matching dominates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PatternCheckBenchmark
+{
+    private EntryStruct[] entries;
+    private ZapProcessor zap;
+    private KeepProcessor keep;
+
+    @Setup(Level.Trial)
+    public void generate(RuleEngineState state) {
+        String[] names = state.classNames;
+        entries = new EntryStruct[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ClassWriter cw = new ClassWriter(0);
+            cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, names[i], null, "java/lang/Object", null);
+            cw.visitEnd();
+            entries[i] = new EntryStruct();
+            entries[i].name = names[i] + ".class";
+            entries[i].data = cw.toByteArray();
+        }
+        zap = new ZapProcessor(RuleSets.asType(state.rules, Zap.class));
+    }
+
+    @Setup(Level.Invocation)
+    public void reset(RuleEngineState state) {
+        // the keep processor accumulates its dependency graph
+        keep = new KeepProcessor(RuleSets.asType(state.rules, Keep.class));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RuleEngineState.NAMES)
+    public void zap(Blackhole bh) throws IOException {
+        for (EntryStruct entry : entries)
+            bh.consume(zap.process(entry));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RuleEngineState.NAMES)
+    public void keep(Blackhole bh) throws IOException {
+        for (EntryStruct entry : entries)
+            bh.consume(keep.process(entry));
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.util.List;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The parameters shared by the rule engine benchmarks: the number of rules,
+ * the number of package segments of the names and the fraction of names that
+ * match a rule.
+ */
+@State(Scope.Thread)
+public class RuleEngineState
+{
+    /** Names processed per benchmark invocation. */
+    public static final int NAMES = 1024;
+
+    private static final long SEED = 42;
+
+    @Param({ "10", "100", "1000" })
+    public int ruleCount;
+
+    @Param({ "3", "6" })
+    public int depth;
+
+    @Param({ "0.1", "0.5", "0.9" })
+    public double hitRatio;
+
+    List<Rule> rules;
+    String[] classNames;
+
+    @Setup(Level.Trial)
+    public void generate() {
+        rules = RuleSets.rules(ruleCount, SEED);
+        classNames = RuleSets.classNames(rules, NAMES, depth, hitRatio, SEED);
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.util.*;
+
+/**
+ * Generates rule sets and class names that look like the ones used to shade
+ * real libraries. Everything is derived from a seed so that runs are
+ * comparable.
+ */
+final class RuleSets
+{
+    private static final String[] ROOTS = { "org", "com", "net", "io" };
+    private static final String[] WORDS = {
+        "api", "impl", "internal", "util", "core", "io", "spi", "model", "config", "http",
+        "json", "xml", "cache", "event", "reflect", "proxy", "annotation", "concurrent"
+    };
+
+    private RuleSets() {}
+
+    /**
+     * Returns <code>count</code> rules: mostly <code>vendor.lib.**</code>
+     * relocations, some single level <code>*</code> rules and some with a
+     * wildcard in the middle of the pattern.
+     */
+    static List<Rule> rules(int count, long seed) {
+        Random random = new Random(seed);
+        List<Rule> rules = new ArrayList<Rule>(count);
+        for (int i = 0; i < count; i++) {
+            String prefix = ROOTS[i % ROOTS.length] + ".vendor" + i + "." + word(random);
+            Rule rule = new Rule();
+            int shape = random.nextInt(10);
+            if (shape < 7) {
+                rule.setPattern(prefix + ".**");
+                rule.setResult("shaded." + prefix + ".@1");
+            } else if (shape < 9) {
+                rule.setPattern(prefix + ".*");
+                rule.setResult("shaded.v" + i + ".@1");
+            } else {
+                rule.setPattern(prefix + ".*." + word(random) + ".**");
+                rule.setResult("shaded.v" + i + ".@1.@2");
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    static <T extends PatternElement> List<T> asType(List<Rule> rules, Class<T> type) {
+        List<T> result = new ArrayList<T>(rules.size());
+        for (Rule rule : rules) {
+            try {
+                T element = type.newInstance();
+                element.setPattern(rule.getPattern());
+                result.add(element);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns internal class names with <code>depth</code> package segments
+     * (where the rule shape allows), a <code>hitRatio</code> fraction of which
+     * match one of the rules.
+     */
+    static String[] classNames(List<Rule> rules, int count, int depth, double hitRatio, long seed) {
+        Random random = new Random(seed);
+        String[] names = new String[count];
+        for (int i = 0; i < count; i++) {
+            StringBuilder sb = new StringBuilder();
+            if (random.nextDouble() < hitRatio) {
+                String[] parts = rules.get(random.nextInt(rules.size())).getPattern().split("\\.");
+                int fixed = 0;
+                for (String part : parts)
+                    if (!part.equals("**"))
+                        fixed++;
+                for (String part : parts) {
+                    if (part.equals("**")) {
+                        for (int j = Math.max(1, depth - fixed + 1); j > 1; j--)
+                            sb.append(word(random)).append('/');
+                        sb.append(className(random));
+                    } else if (part.equals("*")) {
+                        sb.append(part == parts[parts.length - 1] ? className(random) : word(random));
+                    } else {
+                        sb.append(part);
+                    }
+                    sb.append('/');
+                }
+                sb.setLength(sb.length() - 1);
+            } else {
+                sb.append("app/module").append(random.nextInt(100));
+                for (int j = 2; j < depth; j++)
+                    sb.append('/').append(word(random));
+                sb.append('/').append(className(random));
+            }
+            names[i] = sb.toString();
+        }
+        return names;
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private static String className(Random random) {
+        String word = word(random);
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1) + random.nextInt(1000);
+    }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.StandaloneJarProcessor;
+import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.jar.*;
+
+/**
+ * End-to-end throughput of jarjar over a generated jar. Runs three scenarios:
+ * <ul>
+ * <li><code>process</code>: {@link StandaloneJarProcessor} with a
+ *     {@link MainProcessor} relocating every package</li>
+ * <li><code>strip</code>: the same with a keep rule, followed by
+ *     {@link MainProcessor#strip}</li>
+ * <li><code>find</code>: {@link DepFind} of the jar against itself</li>
+ * </ul>
+ * and prints entries/s, MB/s (uncompressed input), allocated MB/s and the
+ * peak heap for each. Usage:
+ * <pre>
+ * java -cp benchmarks.jar com.tonicsystems.jarjar.ShadingThroughput \
+ *     [-classes N] [-vendors N] [-packages N] [-strings N] \
+ *     [-resources N] [-resourceSize N] [-binary F] [-seed N] \
+ *     [-warmup N] [-iterations N] [-dir DIR]
+ * </pre>
+ */
+public class ShadingThroughput
+{
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final File input;
+    private final File output;
+    private final String rules;
+    private final int entries;
+    private final long bytes;
+
+    private ShadingThroughput(File input, File output, String rules) throws IOException {
+        this.input = input;
+        this.output = output;
+        this.rules = rules;
+        int entries = 0;
+        long bytes = 0;
+        JarFile jar = new JarFile(input);
+        try {
+            for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+                entries++;
+                bytes += e.nextElement().getSize();
+            }
+        } finally {
+            jar.close();
+        }
+        this.entries = entries;
+        this.bytes = bytes;
+    }
+
+    public static void main(String[] args) throws Exception {
+        SyntheticJarGenerator generator = new SyntheticJarGenerator();
+        int warmup = 3, iterations = 5;
+        File dir = new File(System.getProperty("java.io.tmpdir"));
+        for (int i = 0; i < args.length; i += 2) {
+            String option = args[i], value = args[i + 1];
+            if (option.equals("-classes")) generator.setClassCount(Integer.parseInt(value));
+            else if (option.equals("-vendors")) generator.setVendors(Integer.parseInt(value));
+            else if (option.equals("-packages")) generator.setPackagesPerVendor(Integer.parseInt(value));
+            else if (option.equals("-strings")) generator.setStringsPerClass(Integer.parseInt(value));
+            else if (option.equals("-resources")) generator.setResourceCount(Integer.parseInt(value));
+            else if (option.equals("-resourceSize")) generator.setResourceSize(Integer.parseInt(value));
+            else if (option.equals("-binary")) generator.setBinaryResources(Double.parseDouble(value));
+            else if (option.equals("-seed")) generator.setSeed(Long.parseLong(value));
+            else if (option.equals("-warmup")) warmup = Integer.parseInt(value);
+            else if (option.equals("-iterations")) iterations = Integer.parseInt(value);
+            else if (option.equals("-dir")) dir = new File(value);
+            else throw new IllegalArgumentException("Unknown option " + option);
+        }
+
+        File input = new File(dir, "jarjar-synthetic.jar");
+        File output = new File(dir, "jarjar-synthetic-out.jar");
+        generator.generate(input);
+        ShadingThroughput benchmark = new ShadingThroughput(input, output, generator.getRules());
+        System.out.println(String.format("input: %s, %d entries, %.1f MB uncompressed, %.1f MB on disk",
+            input, benchmark.entries, benchmark.bytes / 1e6, input.length() / 1e6));
+        System.out.println(String.format("%-8s %12s %10s %14s %12s", "scenario", "entries/s", "MB/s", "alloc MB/s", "peak heap MB"));
+        for (String scenario : new String[]{ "process", "strip", "find" }) {
+            for (int i = 0; i < warmup; i++)
+                benchmark.run(scenario);
+            List<double[]> results = new ArrayList<double[]>();
+            for (int i = 0; i < iterations; i++)
+                results.add(benchmark.measure(scenario));
+            double[] median = median(results);
+            System.out.println(String.format("%-8s %12.0f %10.1f %14.1f %12.1f",
+                scenario, median[0], median[1], median[2], median[3]));
+        }
+        input.delete();
+        output.delete();
+    }
+
+    /** Returns entries/s, MB/s, allocated MB/s and peak heap MB of one run. */
+    private double[] measure(String scenario) throws IOException {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                pool.resetPeakUsage();
+        }
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        run(scenario);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        allocated = allocatedBytes() - allocated;
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP)
+                peak += pool.getPeakUsage().getUsed();
+        }
+        return new double[]{ entries / seconds, bytes / 1e6 / seconds, allocated / 1e6 / seconds, peak / 1e6 };
+    }
+
+    private void run(String scenario) throws IOException {
+        if (scenario.equals("process")) {
+            List<PatternElement> patterns = new ArrayList<PatternElement>();
+            for (PatternElement element : RulesFileParser.parse(rules)) {
+                if (!(element instanceof Keep))
+                    patterns.add(element);
+            }
+            StandaloneJarProcessor.run(input, output, new MainProcessor(patterns, false, false), true);
+        } else if (scenario.equals("strip")) {
+            MainProcessor processor = new MainProcessor(RulesFileParser.parse(rules), false, false);
+            StandaloneJarProcessor.run(input, output, processor, true);
+            processor.strip(output);
+        } else {
+            StringWriter sw = new StringWriter();
+            new DepFind().run(input.getPath(), input.getPath(), new TextDepHandler(new PrintWriter(sw), DepHandler.LEVEL_CLASS));
+        }
+    }
+
+    // all threads where supported (JDK 14+), otherwise just this one
+    private static long allocatedBytes() {
+        try {
+            Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+            try {
+                return ((Long)type.getMethod("getTotalThreadAllocatedBytes").invoke(THREADS)).longValue();
+            } catch (NoSuchMethodException e) {
+                Method current = type.getMethod("getThreadAllocatedBytes", long.class);
+                return ((Long)current.invoke(THREADS, Thread.currentThread().getId())).longValue();
+            }
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    private static double[] median(List<double[]> results) {
+        double[] median = new double[results.get(0).length];
+        for (int i = 0; i < median.length; i++) {
+            double[] values = new double[results.size()];
+            for (int j = 0; j < values.length; j++)
+                values[j] = results.get(j)[i];
+            Arrays.sort(values);
+            median[i] = values[values.length / 2];
+        }
+        return median;
+    }
+}
@@ -0,0 +1,180 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.*;
+import org.objectweb.asm.*;
+
+/**
+ * Writes reproducible jars of generated classes and resources. Classes live
+ * under <code>org/vendorN/...</code>, reference each other through fields,
+ * methods and <code>Class.forName</code> strings, and carry a configurable
+ * number of string constants; resources are spread over the same packages.
+ */
+public class SyntheticJarGenerator
+{
+    private int classCount = 1000;
+    private int vendors = 4;
+    private int packagesPerVendor = 8;
+    private int stringsPerClass = 10;
+    private int resourceCount = 100;
+    private int resourceSize = 4096;
+    private double binaryResources = 0.5;
+    private long seed = 42;
+
+    public SyntheticJarGenerator setClassCount(int classCount) {
+        this.classCount = classCount;
+        return this;
+    }
+
+    /** The number of top level <code>org/vendorN</code> packages, one rule each. */
+    public SyntheticJarGenerator setVendors(int vendors) {
+        this.vendors = vendors;
+        return this;
+    }
+
+    public SyntheticJarGenerator setPackagesPerVendor(int packagesPerVendor) {
+        this.packagesPerVendor = packagesPerVendor;
+        return this;
+    }
+
+    public SyntheticJarGenerator setStringsPerClass(int stringsPerClass) {
+        this.stringsPerClass = stringsPerClass;
+        return this;
+    }
+
+    public SyntheticJarGenerator setResourceCount(int resourceCount) {
+        this.resourceCount = resourceCount;
+        return this;
+    }
+
+    public SyntheticJarGenerator setResourceSize(int resourceSize) {
+        this.resourceSize = resourceSize;
+        return this;
+    }
+
+    /** The fraction of resources with incompressible content, like images. */
+    public SyntheticJarGenerator setBinaryResources(double binaryResources) {
+        this.binaryResources = binaryResources;
+        return this;
+    }
+
+    public SyntheticJarGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /** Returns rules relocating every vendor, and keeping the classes of the first package. */
+    public String getRules() {
+        StringBuilder sb = new StringBuilder();
+        for (int v = 0; v < vendors; v++)
+            sb.append("rule org.vendor").append(v).append(".** shaded.vendor").append(v).append(".@1\n");
+        sb.append("keep org.vendor0.p0.*\n");
+        return sb.toString();
+    }
+
+    public void generate(File file) throws IOException {
+        Random random = new Random(seed);
+        String[] classNames = new String[classCount];
+        for (int i = 0; i < classCount; i++)
+            classNames[i] = packageName(i % (vendors * packagesPerVendor)) + "/C" + i;
+
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(file)), manifest);
+        try {
+            Set<String> dirs = new HashSet<String>();
+            for (int i = 0; i < classCount; i++) {
+                addDirs(out, dirs, classNames[i]);
+                out.putNextEntry(new JarEntry(classNames[i] + ".class"));
+                out.write(generateClass(classNames, i, random));
+            }
+            for (int i = 0; i < resourceCount; i++) {
+                String name = packageName(random.nextInt(vendors * packagesPerVendor)) + "/resource" + i;
+                byte[] data = new byte[resourceSize];
+                if (random.nextDouble() < binaryResources) {
+                    name += ".png";
+                    random.nextBytes(data);
+                } else {
+                    name += ".properties";
+                    for (int j = 0; j < data.length; j++)
+                        data[j] = (byte)('a' + random.nextInt(8));
+                }
+                addDirs(out, dirs, name);
+                out.putNextEntry(new JarEntry(name));
+                out.write(data);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private String packageName(int n) {
+        return "org/vendor" + (n / packagesPerVendor) + "/p" + (n % packagesPerVendor);
+    }
+
+    private static void addDirs(JarOutputStream out, Set<String> dirs, String name) throws IOException {
+        int slash = name.lastIndexOf('/');
+        if (slash > 0) {
+            String dir = name.substring(0, slash + 1);
+            if (dirs.add(dir)) {
+                addDirs(out, dirs, dir.substring(0, slash));
+                out.putNextEntry(new JarEntry(dir));
+            }
+        }
+    }
+
+    private byte[] generateClass(String[] classNames, int index, Random random) {
+        String name = classNames[index];
+        String other = classNames[random.nextInt(classNames.length)];
+        String desc = "L" + other + ";";
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        cw.visitField(Opcodes.ACC_PRIVATE, "ref", desc, null, null).visitEnd();
+
+        MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(Opcodes.RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "(" + desc + ")Ljava/lang/String;", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(Opcodes.ALOAD, 0);
+        mv.visitVarInsn(Opcodes.ALOAD, 1);
+        mv.visitFieldInsn(Opcodes.PUTFIELD, name, "ref", desc);
+        mv.visitLdcInsn(other.replace('/', '.'));
+        mv.visitMethodInsn(Opcodes.INVOKESTATIC, "java/lang/Class", "forName", "(Ljava/lang/String;)Ljava/lang/Class;", false);
+        mv.visitInsn(Opcodes.POP);
+        for (int i = 0; i < stringsPerClass; i++) {
+            mv.visitLdcInsn("Message " + i + " from " + name.substring(name.lastIndexOf('/') + 1) + ": " + random.nextInt());
+            mv.visitInsn(Opcodes.POP);
+        }
+        mv.visitLdcInsn(name.substring(0, name.lastIndexOf('/') + 1) + "resource.properties");
+        mv.visitInsn(Opcodes.ARETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
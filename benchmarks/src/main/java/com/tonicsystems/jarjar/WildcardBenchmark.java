@@ -0,0 +1,65 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Raw {@link Wildcard} evaluation: every name is tried against the rules in
+ * order until one matches, as <code>PackageRemapper</code> does on a cache
+ * miss.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WildcardBenchmark
+{
+    private List<Wildcard> wildcards;
+
+    @Setup(Level.Trial)
+    public void compile(RuleEngineState state) {
+        wildcards = PatternElement.createWildcards(state.rules);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RuleEngineState.NAMES)
+    public void matches(RuleEngineState state, Blackhole bh) {
+        for (String name : state.classNames) {
+            boolean matched = false;
+            for (int i = 0, size = wildcards.size(); i < size && !matched; i++)
+                matched = wildcards.get(i).matches(name);
+            bh.consume(matched);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RuleEngineState.NAMES)
+    public void replace(RuleEngineState state, Blackhole bh) {
+        for (String name : state.classNames) {
+            String result = null;
+            for (int i = 0, size = wildcards.size(); i < size && result == null; i++)
+                result = wildcards.get(i).replace(name);
+            bh.consume(result);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.*;
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Processes many jars with the same rules at the same time.
+ * <p>
+ * The rules are compiled once and shared, so that a name found in several
+ * jars is matched against the rules once. Each jar still gets its own
+ * {@link MainProcessor}, so keep rules and duplicates are handled per jar as
+ * if it were processed alone. A jar that fails does not stop the others.
+ */
+class BatchProcessor
+{
+    private final Main main;
+    private final CompiledRules rules;
+    private final Mapping mapping;
+    private final Mapping.Output mappingOut;
+    private final int threads;
+
+    /**
+     * @param main creates the processor of each jar
+     * @param mapping if not <code>null</code>, applied instead of the rules
+     * @param mappingOut if not <code>null</code>, receives the renames of all
+     *        jars, and is closed when they are done
+     */
+    public BatchProcessor(Main main, CompiledRules rules, Mapping mapping, Mapping.Output mappingOut, int threads) {
+        this.main = main;
+        this.rules = rules;
+        this.mapping = mapping;
+        this.mappingOut = mappingOut;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @param jars pairs of input and output jar
+     * @throws IOException if any of the jars failed, after all were tried
+     */
+    public void run(List<File[]> jars, final CompressionPolicy policy) throws IOException {
+        final PrintStream err = main.getErrorStream();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> results = new ArrayList<Future<?>>();
+            for (final File[] jar : jars) {
+                results.add(executor.submit(new Callable<Object>() {
+                    public Object call() throws IOException {
+                        MainProcessor proc = main.createProcessor(rules, mapping,
+                                                                  mappingOut != null ? mappingOut.share() : null);
+                        try {
+                            StandaloneJarProcessor.run(jar[0], jar[1], proc, false, policy);
+                            proc.strip(jar[1], policy);
+                        } finally {
+                            proc.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            int failed = 0;
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    results.get(i).get();
+                } catch (ExecutionException e) {
+                    failed++;
+                    synchronized (err) {
+                        err.println("Error processing " + jars.get(i)[0] + ":");
+                        e.getCause().printStackTrace(err);
+                    }
+                }
+            }
+            if (failed > 0)
+                throw new IOException(failed + " of " + jars.size() + " jars failed");
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            executor.shutdownNow();
+            if (mappingOut != null)
+                mappingOut.close();
+        }
+    }
+}
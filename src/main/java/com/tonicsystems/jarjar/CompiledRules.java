@@ -0,0 +1,219 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A parsed rules file with its rename rules compiled, and the results of
+ * evaluating them.
+ * <p>
+ * Instances can be shared by any number of {@link MainProcessor}s, including
+ * ones running at the same time, so that each name is matched against the
+ * rules once however many jars it appears in. Each {@link PackageRemapper}
+ * still keeps its own caches in front of this one, so that what it reports
+ * and counts is the same as without sharing.
+ * <p>
+ * Programs that embed jarjar compile their rules once with {@link #parse}
+ * and pass them to each {@link Repackager}.
+ */
+public class CompiledRules
+{
+    // the shared results are dropped when there are more, to bound the memory of long-lived instances
+    private static final int DEFAULT_MAX_RESULTS = 1 << 20;
+
+    private final List<PatternElement> patterns;
+    private final List<Rule> rules = new ArrayList<Rule>();
+    private final List<Wildcard> wildcards;
+    private final PrefixMatcher prefixes;
+    private final ConcurrentMap<String, Match> results = new ConcurrentHashMap<String, Match>();
+    private final int maxResults;
+
+    public CompiledRules(List<? extends PatternElement> patterns) {
+        this(patterns, DEFAULT_MAX_RESULTS);
+    }
+
+    /**
+     * @param maxResults how many names to remember the result of, after
+     *        which they are all dropped
+     */
+    public CompiledRules(List<? extends PatternElement> patterns, int maxResults) {
+        if (maxResults < 1)
+            throw new IllegalArgumentException("maxResults must be positive: " + maxResults);
+        this.maxResults = maxResults;
+        this.patterns = Collections.unmodifiableList(new ArrayList<PatternElement>(patterns));
+        for (PatternElement pattern : patterns) {
+            if (pattern instanceof Rule)
+                rules.add((Rule) pattern);
+        }
+        wildcards = PatternElement.createWildcards(rules);
+        prefixes = PrefixMatcher.forPatterns(rules);
+    }
+
+    /** Parses rules in the format of a rules file. */
+    public static CompiledRules parse(String rules) throws IOException {
+        return new CompiledRules(RulesFileParser.parse(rules));
+    }
+
+    /** Returns <code>patterns</code> in the format of a rules file. */
+    static String format(List<? extends PatternElement> patterns) {
+        StringBuilder sb = new StringBuilder();
+        for (PatternElement pattern : patterns) {
+            if (pattern instanceof Rule) {
+                sb.append("rule ").append(pattern.getPattern()).append(' ').append(((Rule)pattern).getResult());
+            } else if (pattern instanceof Zap) {
+                sb.append("zap ").append(pattern.getPattern());
+            } else if (pattern instanceof Keep) {
+                sb.append("keep ").append(pattern.getPattern());
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /** Returns all the patterns, including zap and keep rules. */
+    public List<PatternElement> getPatterns() {
+        return patterns;
+    }
+
+    public List<Rule> getRules() {
+        return rules;
+    }
+
+    /** Returns the literal prefixes of the rename rules. */
+    PrefixMatcher getPrefixMatcher() {
+        return prefixes;
+    }
+
+    /** Returns the first rule that matches <code>value</code>, and what it makes of it. */
+    Match replace(String value) {
+        Match match = results.get(value);
+        if (match == null) {
+            match = Match.NONE;
+            for (int i = 0, size = wildcards.size(); i < size; i++) {
+                String test = wildcards.get(i).replace(value);
+                if (test != null) {
+                    match = new Match(test, i, rules.get(i).getPattern());
+                    break;
+                }
+            }
+            if (results.size() >= maxResults)
+                results.clear();
+            results.put(value, match);
+        }
+        return match;
+    }
+
+    /**
+     * Compiled rules by their content, so that rules used again are neither
+     * parsed nor matched again. The least recently used rules are dropped when
+     * there are more than <code>maxSize</code>. Can be used from several
+     * threads.
+     */
+    public static class Cache
+    {
+        private static final Cache SHARED = createShared(Integer.getInteger("jarjar.rulesCacheSize", 16),
+                                                         Integer.getInteger("jarjar.rulesCacheResults", 1 << 18));
+
+        private final Map<String, CompiledRules> rules;
+        private final int maxResults;
+
+        public Cache(int maxSize) {
+            this(maxSize, DEFAULT_MAX_RESULTS);
+        }
+
+        /**
+         * @param maxResults how many results each of the rules keeps, see
+         *        {@link CompiledRules#CompiledRules(List, int)}
+         */
+        public Cache(final int maxSize, int maxResults) {
+            this.maxResults = maxResults;
+            rules = new LinkedHashMap<String, CompiledRules>(16, 0.75f, true) {
+                protected boolean removeEldestEntry(Map.Entry<String, CompiledRules> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        /**
+         * Returns the cache of this JVM, which is kept by builds and daemons
+         * that process many jars with the same rules. Its size is given by
+         * the <code>jarjar.rulesCacheSize</code> system property, and the
+         * <code>jarjar.rulesCacheResults</code> system property bounds the
+         * results kept by all its rules together.
+         */
+        public static Cache shared() {
+            return SHARED;
+        }
+
+        private static Cache createShared(int maxSize, int totalResults) {
+            return new Cache(maxSize, Math.max(1, totalResults / Math.max(1, maxSize)));
+        }
+
+        public CompiledRules get(File rulesFile) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            Reader r = new FileReader(rulesFile);
+            try {
+                char[] buf = new char[0x2000];
+                for (int n; (n = r.read(buf)) >= 0;)
+                    sb.append(buf, 0, n);
+            } finally {
+                r.close();
+            }
+            String content = sb.toString();
+            CompiledRules compiled = lookup(content);
+            return compiled != null ? compiled : put(content, new CompiledRules(RulesFileParser.parse(content), maxResults));
+        }
+
+        public CompiledRules get(List<? extends PatternElement> patterns) {
+            String key = format(patterns);
+            CompiledRules compiled = lookup(key);
+            return compiled != null ? compiled : put(key, new CompiledRules(patterns, maxResults));
+        }
+
+        private synchronized CompiledRules lookup(String key) {
+            return rules.get(key);
+        }
+
+        // compiling is done outside the lock, so the first of the same rules compiled at the same time is kept
+        private synchronized CompiledRules put(String key, CompiledRules compiled) {
+            CompiledRules first = rules.get(key);
+            if (first != null)
+                return first;
+            rules.put(key, compiled);
+            return compiled;
+        }
+    }
+
+    static class Match
+    {
+        static final Match NONE = new Match(null, -1, null);
+
+        final String result;  // null if no rule matches
+        final int index;      // of the rule
+        final String pattern; // of the rule
+
+        Match(String result, int index, String pattern) {
+            this.result = result;
+            this.index = index;
+            this.pattern = pattern;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.util.List;
+
+/**
+ * Collects the string constants and the string values of annotations of a
+ * class file. Unlike {@link StringReader} this only walks the constant pool and
+ * the attribute tables; method bodies are skipped, so line numbers are not
+ * available.
+ */
+class ConstantStringReader
+{
+    private byte[] b;
+    private int[] items = new int[1000];
+    private int[] constants = new int[100];
+    private char[] chars = new char[256];
+
+    /**
+     * Returns the internal name of the class and adds its strings to
+     * <code>strings</code>: first the <code>CONSTANT_String</code> entries in
+     * constant pool order, then the annotation values in class file order.
+     */
+    public String read(byte[] b, List<String> strings) {
+        this.b = b;
+        if (b.length < 10 || readInt(0) != 0xCAFEBABE)
+            throw new ClassFormatError("Bad magic number");
+        int count = readUnsignedShort(8);
+        if (items.length < count)
+            items = new int[Math.max(count, items.length * 2)];
+        int[] items = this.items;
+
+        // the Utf8 entries of the strings may come after them, so they are read once the pool is
+        int constantCount = 0;
+        int index = 10;
+        for (int i = 1; i < count; i++) {
+            int tag = b[index];
+            items[i] = index + 1;
+            switch (tag) {
+            case 9:  // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 3:  // Integer
+            case 4:  // Float
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                index += 5;
+                break;
+            case 5:  // Long
+            case 6:  // Double
+                index += 9;
+                i++;
+                break;
+            case 1:  // Utf8
+                index += 3 + readUnsignedShort(index + 1);
+                break;
+            case 15: // MethodHandle
+                index += 4;
+                break;
+            case 8:  // String
+                if (constantCount == constants.length) {
+                    int[] copy = new int[constantCount * 2];
+                    System.arraycopy(constants, 0, copy, 0, constantCount);
+                    constants = copy;
+                }
+                constants[constantCount++] = readUnsignedShort(index + 1);
+                index += 3;
+                break;
+            case 7:  // Class
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                index += 3;
+                break;
+            default:
+                throw new IllegalStateException("Unknown constant pool tag " + tag);
+            }
+        }
+        for (int i = 0; i < constantCount; i++)
+            strings.add(readUTF(items[constants[i]]));
+        String className = readUTF(items[readUnsignedShort(items[readUnsignedShort(index + 2)])]);
+
+        index += 8 + readUnsignedShort(index + 6) * 2;
+        for (int member = 0; member < 2; member++) {
+            int n = readUnsignedShort(index);
+            index += 2;
+            for (int i = 0; i < n; i++)
+                index = readAttributes(index + 6, strings);
+        }
+        readAttributes(index, strings);
+        return className;
+    }
+
+    private int readAttributes(int index, List<String> strings) {
+        int n = readUnsignedShort(index);
+        index += 2;
+        for (int i = 0; i < n; i++) {
+            String name = readUTF(items[readUnsignedShort(index)]);
+            int length = readInt(index + 2);
+            index += 6;
+            if (name.equals("RuntimeVisibleAnnotations") || name.equals("RuntimeInvisibleAnnotations")) {
+                readAnnotations(index, strings);
+            } else if (name.equals("RuntimeVisibleParameterAnnotations") || name.equals("RuntimeInvisibleParameterAnnotations")) {
+                int p = index + 1;
+                for (int j = b[index] & 0xFF; j > 0; j--)
+                    p = readAnnotations(p, strings);
+            }
+            index += length;
+        }
+        return index;
+    }
+
+    private int readAnnotations(int index, List<String> strings) {
+        int n = readUnsignedShort(index);
+        index += 2;
+        for (int i = 0; i < n; i++)
+            index = readAnnotation(index, strings);
+        return index;
+    }
+
+    private int readAnnotation(int index, List<String> strings) {
+        int n = readUnsignedShort(index + 2);
+        index += 4;
+        for (int i = 0; i < n; i++)
+            index = readElementValue(index + 2, strings);
+        return index;
+    }
+
+    private int readElementValue(int index, List<String> strings) {
+        switch (b[index]) {
+        case 's':
+            strings.add(readUTF(items[readUnsignedShort(index + 1)]));
+            return index + 3;
+        case 'e':
+            strings.add(readUTF(items[readUnsignedShort(index + 3)]));
+            return index + 5;
+        case '@':
+            return readAnnotation(index + 1, strings);
+        case '[':
+            int n = readUnsignedShort(index + 1);
+            index += 3;
+            for (int i = 0; i < n; i++)
+                index = readElementValue(index, strings);
+            return index;
+        default:
+            return index + 3;
+        }
+    }
+
+    // decodes the modified UTF-8 used by class files
+    private String readUTF(int index) {
+        byte[] b = this.b;
+        int len = readUnsignedShort(index);
+        if (chars.length < len)
+            chars = new char[Math.max(len, chars.length * 2)];
+        char[] chars = this.chars;
+        int pos = index + 2;
+        int end = pos + len;
+        int n = 0;
+        while (pos < end) {
+            int c = b[pos++] & 0xFF;
+            if (c < 0x80) {
+                chars[n++] = (char)c;
+            } else if (c < 0xE0) {
+                chars[n++] = (char)(((c & 0x1F) << 6) | (b[pos++] & 0x3F));
+            } else {
+                chars[n++] = (char)(((c & 0x0F) << 12) | ((b[pos] & 0x3F) << 6) | (b[pos + 1] & 0x3F));
+                pos += 2;
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    private int readUnsignedShort(int index) {
+        byte[] b = this.b;
+        return ((b[index] & 0xFF) << 8) | (b[index + 1] & 0xFF);
+    }
+
+    private int readInt(int index) {
+        return (readUnsignedShort(index) << 16) | readUnsignedShort(index + 2);
+    }
+}
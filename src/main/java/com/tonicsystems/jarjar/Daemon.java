@@ -0,0 +1,339 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the commands of {@link Main} for clients connecting to a loopback
+ * socket, so that a build that calls jarjar many times starts and warms up a
+ * JVM only once.
+ * <p>
+ * Jobs run concurrently, one per connection, each with its own properties and
+ * output. Rules files with the same content share their {@link CompiledRules},
+ * and with them the results of matching names against the rules.
+ * <p>
+ * The daemon writes a random token to a file that only its user can read,
+ * <code>daemon-&lt;port&gt;.token</code> in the token directory, and closes
+ * connections that do not start with it, so that other local users can
+ * neither run jobs nor stop the daemon. The file is deleted when the daemon
+ * stops.
+ * <p>
+ * A job is sent as lines of tab separated UTF-8 text, ended by an empty line:
+ * <code>token</code> and the token, <code>dir</code> and the directory that relative file arguments are
+ * resolved against, <code>property</code>, the name and the value of each
+ * property, and <code>arg</code> and each argument. The reply has a line for
+ * each line of output, <code>out</code> or <code>err</code> and the text,
+ * followed by <code>exit</code> and the exit code. Values are escaped as in
+ * {@link Mapping}. The job <code>stop</code> stops the daemon once the
+ * running jobs are done.
+ */
+class Daemon
+{
+    // sent by clients along with a job
+    static final String[] PROPERTIES = {
+        "verbose", "skipManifest", "lines", "rewriteResources", "mappingIn", "mappingOut",
+        "compressionLevel", "storeIntermediates", "storedExtensions", "shards", "shardJvmArgs", "threads"
+    };
+
+    private final int port;
+    private final File tokenDirectory;
+    private final CompiledRules.Cache rulesCache = CompiledRules.Cache.shared();
+    private ServerSocket server;
+    private File tokenFile;
+    private byte[] token;
+
+    /**
+     * @param port the port to listen on, or <code>0</code> for any free port
+     * @param tokenDirectory where the token file is written
+     */
+    public Daemon(int port, File tokenDirectory) {
+        this.port = port;
+        this.tokenDirectory = tokenDirectory;
+    }
+
+    /** Returns the directory of the token files of the user of this JVM. */
+    static File getDefaultTokenDirectory() {
+        return new File(System.getProperty("user.home"), ".jarjar");
+    }
+
+    /**
+     * Starts listening and writes the token file, and returns the port. Jobs
+     * are accepted once {@link #run} is called.
+     */
+    public synchronized int listen() throws IOException {
+        if (server == null) {
+            server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+            try {
+                byte[] random = new byte[16];
+                new SecureRandom().nextBytes(random);
+                String hex = toHex(random);
+                tokenFile = getTokenFile(tokenDirectory, server.getLocalPort());
+                writeToken(tokenFile, hex);
+                token = hex.getBytes("UTF-8");
+            } catch (IOException e) {
+                server.close();
+                throw e;
+            }
+        }
+        return server.getLocalPort();
+    }
+
+    public void run() throws IOException {
+        listen();
+        System.err.println("jarjar daemon listening on port " + server.getLocalPort() + ", token in " + tokenFile);
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(),
+                                                                 new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "jarjar-job");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (;;) {
+                final Socket socket;
+                try {
+                    socket = server.accept();
+                } catch (SocketException e) {
+                    if (server.isClosed())
+                        break; // stopped
+                    throw e;
+                }
+                executor.execute(new Runnable() {
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            }
+        } finally {
+            server.close();
+            tokenFile.delete();
+            executor.shutdown();
+        }
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the running jobs
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            try {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+                String first = in.readLine();
+                if (first == null || !first.startsWith("token\t")
+                    || !MessageDigest.isEqual(token, first.substring(6).getBytes("UTF-8")))
+                    return; // not from the user of the daemon
+                Writer w = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+                File dir = null;
+                Properties properties = new Properties(System.getProperties());
+                List<String> args = new ArrayList<String>();
+                for (String line; (line = in.readLine()) != null && line.length() > 0;) {
+                    String[] parts = line.split("\t", -1);
+                    if (parts[0].equals("dir") && parts.length == 2) {
+                        dir = new File(Mapping.unescape(parts[1]));
+                    } else if (parts[0].equals("property") && parts.length == 3) {
+                        properties.setProperty(Mapping.unescape(parts[1]), Mapping.unescape(parts[2]));
+                    } else if (parts[0].equals("arg") && parts.length == 2) {
+                        args.add(Mapping.unescape(parts[1]));
+                    } else {
+                        throw new IOException("Bad request: " + line);
+                    }
+                }
+                Channel outChannel = new Channel(w, "out");
+                Channel errChannel = new Channel(w, "err");
+                PrintStream out = new PrintStream(outChannel, true, "UTF-8");
+                PrintStream err = new PrintStream(errChannel, true, "UTF-8");
+                int status = 0;
+                String command = args.isEmpty() ? null : args.get(0);
+                if ("stop".equals(command)) {
+                    server.close();
+                } else if ("daemon".equals(command) || "client".equals(command)) {
+                    err.println("The " + command + " command cannot be run by the daemon");
+                    status = 1;
+                } else {
+                    try {
+                        Main main = new Main(properties, out, err, rulesCache);
+                        MainUtil.runMain(main, args.toArray(new String[args.size()]), "help", dir, err);
+                    } catch (Throwable t) {
+                        t.printStackTrace(err);
+                        status = 1;
+                    }
+                }
+                out.flush();
+                err.flush();
+                outChannel.finish();
+                errChannel.finish();
+                synchronized (w) {
+                    w.write("exit\t" + status + "\n");
+                    w.flush();
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // the client went away
+        }
+    }
+
+    /**
+     * Runs a job on the daemon listening on <code>port</code>, with the
+     * working directory and the jarjar system properties of this JVM, and
+     * copies its output to <code>out</code> and <code>err</code>.
+     *
+     * @param tokenDirectory where the daemon wrote its token file
+     * @return the exit code of the job
+     */
+    static int send(File tokenDirectory, int port, String[] args, PrintStream out, PrintStream err)
+        throws IOException {
+        String token = readToken(getTokenFile(tokenDirectory, port));
+        Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+        try {
+            Writer w = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8"));
+            w.write("token\t" + token + "\n");
+            w.write("dir\t" + Mapping.escape(new File("").getAbsolutePath()) + "\n");
+            for (String name : PROPERTIES) {
+                String value = System.getProperty(name);
+                if (value != null && name.startsWith("mapping"))
+                    value = new File(value).getAbsolutePath();
+                if (value != null)
+                    w.write("property\t" + Mapping.escape(name) + "\t" + Mapping.escape(value) + "\n");
+            }
+            for (String arg : args)
+                w.write("arg\t" + Mapping.escape(arg) + "\n");
+            w.write("\n");
+            w.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+            for (String line; (line = in.readLine()) != null;) {
+                int tab = line.indexOf('\t');
+                String kind = tab < 0 ? line : line.substring(0, tab);
+                String text = tab < 0 ? "" : Mapping.unescape(line.substring(tab + 1));
+                if (kind.equals("out")) {
+                    out.println(text);
+                } else if (kind.equals("err")) {
+                    err.println(text);
+                } else if (kind.equals("exit")) {
+                    return Integer.parseInt(text);
+                }
+            }
+            throw new EOFException("The daemon closed the connection");
+        } finally {
+            out.flush();
+            socket.close();
+        }
+    }
+
+    private static File getTokenFile(File tokenDirectory, int port) {
+        return new File(tokenDirectory, "daemon-" + port + ".token");
+    }
+
+    // the file is made private to its owner before the token is in it
+    private static void writeToken(File file, String token) throws IOException {
+        file.getParentFile().mkdirs();
+        file.delete();
+        if (!file.createNewFile())
+            throw new IOException("Unable to create " + file);
+        if (!file.setReadable(false, false) || !file.setReadable(true, true)
+            || !file.setWritable(false, false) || !file.setWritable(true, true)) {
+            file.delete();
+            throw new IOException("Unable to make " + file + " private");
+        }
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write(token + "\n");
+        } finally {
+            w.close();
+        }
+    }
+
+    private static String readToken(File file) throws IOException {
+        BufferedReader r;
+        try {
+            r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        } catch (FileNotFoundException e) {
+            throw new IOException("No daemon token in " + file);
+        }
+        try {
+            String token = r.readLine();
+            if (token == null)
+                throw new IOException("No daemon token in " + file);
+            return token;
+        } finally {
+            r.close();
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes)
+            sb.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        return sb.toString();
+    }
+
+    // sends the output of a job as lines of one kind
+    private static class Channel extends OutputStream
+    {
+        private final Writer w;
+        private final String kind;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        Channel(Writer w, String kind) {
+            this.w = w;
+            this.kind = kind;
+        }
+
+        public synchronized void write(int b) throws IOException {
+            if (b == '\n') {
+                sendLine();
+            } else {
+                line.write(b);
+            }
+        }
+
+        /** Sends the last line if it did not end with a line break. */
+        public synchronized void finish() throws IOException {
+            if (line.size() > 0)
+                sendLine();
+        }
+
+        private void sendLine() throws IOException {
+            String text = line.toString("UTF-8");
+            if (text.endsWith("\r"))
+                text = text.substring(0, text.length() - 1);
+            line.reset();
+            synchronized (w) {
+                w.write(kind + "\t" + Mapping.escape(text) + "\n");
+            }
+        }
+    }
+}
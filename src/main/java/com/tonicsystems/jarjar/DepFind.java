@@ -19,6 +19,7 @@ package com.tonicsystems.jarjar;
 import com.tonicsystems.jarjar.util.*;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.zip.ZipEntry;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
@@ -33,28 +34,10 @@ public class DepFind
 
     public void run(String from, String to, DepHandler handler) throws IOException {
         try {
-            ClassHeaderReader header = new ClassHeaderReader();
-            Map<String, String> classes = new HashMap<String, String>();
-            ClassPathIterator cp = new ClassPathIterator(curDir, to, null);
-            try {
-              while (cp.hasNext()) {
-                ClassPathEntry entry = cp.next();
-                InputStream in = entry.openStream();
-                try {
-                  header.read(in);
-                  classes.put(header.getClassName(), entry.getSource());
-                } catch (Exception e) {
-                  System.err.println("Error reading " + entry.getName() + ": " + e.getMessage());
-                } finally {
-                  in.close();
-                }
-              }
-            } finally {
-              cp.close();
-            }
+            Map<String, String> classes = readClasses(to);
 
             handler.handleStart();
-            cp = new ClassPathIterator(curDir, from, null);
+            ClassPathIterator cp = new ClassPathIterator(curDir, from, null);
             try {
               while (cp.hasNext()) {
                 ClassPathEntry entry = cp.next();
@@ -77,4 +60,63 @@ public class DepFind
             throw (IOException)e.getCause();
         }
     }
+
+    // reads the class headers of each part of the classpath on its own thread
+    private Map<String, String> readClasses(String cp) throws IOException {
+        List<ClassPathIterator> parts = ClassPathIterator.split(curDir, cp, null,
+            Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(parts.size());
+        try {
+            List<Future<Map<String, String>>> futures = new ArrayList<Future<Map<String, String>>>();
+            for (final ClassPathIterator part : parts) {
+                futures.add(executor.submit(new Callable<Map<String, String>>() {
+                    public Map<String, String> call() throws IOException {
+                        return readClasses(part);
+                    }
+                }));
+            }
+            // merge in classpath order so that later entries win, as before
+            Map<String, String> classes = new HashMap<String, String>();
+            for (Future<Map<String, String>> future : futures)
+                classes.putAll(future.get());
+            return classes;
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw (Error)cause;
+        } finally {
+            executor.shutdownNow();
+            for (ClassPathIterator part : parts)
+                part.close();
+        }
+    }
+
+    private static Map<String, String> readClasses(ClassPathIterator cp) throws IOException {
+        ClassHeaderReader header = new ClassHeaderReader();
+        Map<String, String> classes = new HashMap<String, String>();
+        try {
+          while (cp.hasNext()) {
+            ClassPathEntry entry = cp.next();
+            InputStream in = entry.openStream();
+            try {
+              header.read(in);
+              classes.put(header.getClassName(), entry.getSource());
+            } catch (Exception e) {
+              System.err.println("Error reading " + entry.getName() + ": " + e.getMessage());
+            } finally {
+              in.close();
+            }
+          }
+        } catch (RuntimeIOException e) {
+          throw (IOException)e.getCause();
+        } finally {
+          cp.close();
+        }
+        return classes;
+    }
 }
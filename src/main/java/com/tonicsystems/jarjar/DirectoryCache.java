@@ -0,0 +1,91 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+/**
+ * A hash table keyed by strings that can be looked up with a region of a
+ * {@link CharSequence}, so that the directory of a path can be found without
+ * creating a substring.
+ */
+class DirectoryCache<V>
+{
+    private String[] keys = new String[64];
+    private Object[] values = new Object[64];
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public V get(CharSequence s, int start, int end) {
+        int mask = keys.length - 1;
+        for (int i = hash(s, start, end) & mask;; i = (i + 1) & mask) {
+            String key = keys[i];
+            if (key == null)
+                return null;
+            if (regionEquals(key, s, start, end))
+                return (V)values[i];
+        }
+    }
+
+    public void put(String key, V value) {
+        if ((size + 1) * 2 > keys.length)
+            resize();
+        if (insert(keys, values, key, value))
+            size++;
+    }
+
+    private void resize() {
+        String[] newKeys = new String[keys.length * 2];
+        Object[] newValues = new Object[keys.length * 2];
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null)
+                insert(newKeys, newValues, keys[i], values[i]);
+        }
+        keys = newKeys;
+        values = newValues;
+    }
+
+    private static boolean insert(String[] keys, Object[] values, String key, Object value) {
+        int mask = keys.length - 1;
+        for (int i = hash(key, 0, key.length()) & mask;; i = (i + 1) & mask) {
+            if (keys[i] == null) {
+                keys[i] = key;
+                values[i] = value;
+                return true;
+            }
+            if (keys[i].equals(key)) {
+                values[i] = value;
+                return false;
+            }
+        }
+    }
+
+    private static boolean regionEquals(String key, CharSequence s, int start, int end) {
+        if (key.length() != end - start)
+            return false;
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) != s.charAt(start + i))
+                return false;
+        }
+        return true;
+    }
+
+    private static int hash(CharSequence s, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++)
+            h = 31 * h + s.charAt(i);
+        return h ^ (h >>> 16);
+    }
+}
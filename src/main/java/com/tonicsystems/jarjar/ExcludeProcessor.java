@@ -24,16 +24,29 @@ class ExcludeProcessor implements JarProcessor
 {
     private final Set<String> excludes;
     private final boolean verbose;
+    private final EventLog log;
 
     public ExcludeProcessor(Set<String> excludes, boolean verbose) {
         this.excludes = excludes;
         this.verbose = verbose;
+        this.log = null;
+    }
+
+    public ExcludeProcessor(Set<String> excludes, EventLog log) {
+        this.excludes = excludes;
+        this.verbose = false;
+        this.log = log;
     }
 
     public boolean process(EntryStruct struct) throws IOException {
         boolean toKeep = !excludes.contains(struct.name);
-        if (verbose && !toKeep)
-            System.err.println("Excluding " + struct.name);
+        if (!toKeep) {
+            if (log != null) {
+                log.log(EventLog.Kind.EXCLUDED, struct.name, null, null);
+            } else if (verbose) {
+                System.err.println("Excluding " + struct.name);
+            }
+        }
         return toKeep;
     }
 }
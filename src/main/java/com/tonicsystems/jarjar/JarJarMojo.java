@@ -17,29 +17,55 @@
 package com.tonicsystems.jarjar;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.resolver.filter.AndArtifactFilter;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.shared.artifact.filter.StrictPatternExcludesArtifactFilter;
 import org.apache.maven.shared.artifact.filter.StrictPatternIncludesArtifactFilter;
 import org.codehaus.plexus.archiver.Archiver;
 import org.codehaus.plexus.archiver.UnArchiver;
 import org.codehaus.plexus.archiver.manager.ArchiverManager;
+import org.codehaus.plexus.archiver.zip.AbstractZipArchiver;
 import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
 
+import com.tonicsystems.jarjar.util.CompressionPolicy;
+import com.tonicsystems.jarjar.util.EventLog;
+import com.tonicsystems.jarjar.util.Metrics;
 import com.tonicsystems.jarjar.util.StandaloneJarProcessor;
 
 /**
  * Repackage dependencies and embed them into the final artifact.
  * 
+ * <p>
+ * Compiled rules and the results of matching names against them are kept for the life of the JVM, so executions with
+ * the same rules, in the same or in later builds of a Maven daemon, share them. Executions may run concurrently.
+ * At most <code>jarjar.rulesCacheSize</code> sets of rules (16 by default) are kept, least recently used first out,
+ * and together they remember at most <code>jarjar.rulesCacheResults</code> names (262144 by default), each set of
+ * rules dropping its results when it reaches its share. Both are system properties read once per JVM.
+ * 
  * @goal jarjar
  * @phase package
  * @requiresDependencyResolution test
+ * @threadSafe
  */
 public class JarJarMojo
     extends AbstractMojo
@@ -57,6 +83,12 @@ public class JarJarMojo
      */
     private MavenProject project;
 
+    /**
+     * @parameter expression="${plugin}"
+     * @readonly
+     */
+    private PluginDescriptor plugin;
+
     /**
      * @parameter default-value="${project.build.directory}/jarjar"
      * @required
@@ -113,6 +145,96 @@ public class JarJarMojo
      */
     private boolean overwrite;
 
+    /**
+     * When true, time each phase and processor and count rule and cache hits. The results are written to
+     * <code>jarjar-metrics.json</code> in the working directory and summarized in the log.
+     * 
+     * @parameter expression="${jarjar.metrics}"
+     */
+    private boolean metrics;
+
+    /**
+     * Deflate level of the JarJar'd archive, from 0 (store) to 9, or -1 for the default level.
+     * 
+     * @parameter expression="${jarjar.compressionLevel}" default-value="-1"
+     */
+    private int compressionLevel;
+
+    /**
+     * When true, the intermediate archives in the working directory are stored uncompressed, since they are only read
+     * again by this plugin.
+     * 
+     * @parameter expression="${jarjar.storeIntermediates}" default-value="true"
+     */
+    private boolean storeIntermediates;
+
+    /**
+     * Comma-separated extensions of already compressed files, which are stored instead of deflated.
+     * 
+     * @parameter expression="${jarjar.storedExtensions}" default-value="png,jpg,jpeg,gif,jar,zip,gz,bz2,xz"
+     */
+    private String storedExtensions;
+
+    /**
+     * File to record renamed, removed and changed entries and string constants in, at the level of the Maven log:
+     * with debug output every change is recorded, otherwise only merged resources and conflicting duplicates.
+     * Without it, changes are printed to standard error when debug output is enabled.
+     * 
+     * @parameter expression="${jarjar.eventLog}"
+     */
+    private File eventLog;
+
+    /**
+     * Paths of the text resources whose class names are renamed and whose duplicates are merged, where <code>*</code>
+     * matches within a directory and <code>**</code> across directories. Defaults to service files and the Spring
+     * handler and schema mappings.
+     * 
+     * @parameter
+     */
+    private List<String> rewriteResources;
+
+    /**
+     * File to write every class, resource path and string constant rename to, one tab separated
+     * <code>kind old new</code> line each.
+     * 
+     * @parameter expression="${jarjar.mappingOutput}"
+     */
+    private File mappingOutput;
+
+    /**
+     * Mapping file written by an earlier run over the same input with the same rules. Names are then renamed by
+     * looking them up in the mapping instead of matching the rules, and names that are not in it are left alone. Zap
+     * and keep rules still apply.
+     * 
+     * @parameter expression="${jarjar.mappingInput}"
+     */
+    private File mappingInput;
+
+    /**
+     * Other sets of rules to apply to the same input, each written to its own <code>output</code>, with an optional
+     * <code>mappingOutput</code>. The input and dependencies are read once for all of them. Variants are written
+     * whenever the main output is, and their outputs must differ from the input. Variants only use their own rules:
+     * <code>mappingInput</code>, <code>mappingOutput</code> and <code>eventLog</code> apply to the main output alone.
+     * With <code>metrics</code>, each variant gets its own <code>jarjar-metrics-&lt;output name&gt;.json</code>.
+     * 
+     * @parameter
+     */
+    private List<Variant> variants;
+
+    /**
+     * Directory to keep release dependencies in after shading them, laid out like a repository with a key of the
+     * rules, the plugin version and the shading format in the file names. Each dependency is shaded once for the same
+     * rules, and later executions and modules copy its entries into their output without transforming them again. Not
+     * used with keep rules, variants or mapping files, which need all classes in one pass. Dependencies that are not
+     * jars are handled as without the cache.
+     * <p>
+     * When several jars have the same path, the first one still wins, but the project and its snapshot dependencies
+     * now come before all cached release dependencies, whatever the order of the dependencies.
+     * 
+     * @parameter expression="${jarjar.shadedCache}"
+     */
+    private File shadedCache;
+
     /**
      * @component
      */
@@ -122,6 +244,8 @@ public class JarJarMojo
     public void execute()
         throws MojoExecutionException
     {
+        MainProcessor processor = null;
+        final List<MainProcessor> processors = new ArrayList<MainProcessor>();
         try
         {
             // VALIDATE INPUT / OUTPUT
@@ -167,7 +291,65 @@ public class JarJarMojo
 
             // SETUP JARJAR
 
-            final MainProcessor processor = new MainProcessor( rules, getLog().isDebugEnabled(), skipManifest );
+            final Metrics stats = new Metrics();
+            final Mapping mapping = null != mappingInput ? Mapping.read( mappingInput ) : null;
+            processor =
+                new MainProcessor( CompiledRules.Cache.shared().get( rules ), mapping, getLog().isDebugEnabled(),
+                                   skipManifest, metrics ? stats : null );
+            if ( null != mappingOutput )
+            {
+                mappingOutput.getParentFile().mkdirs();
+                processor.setMappingOutput( new Mapping.Output( mappingOutput ) );
+            }
+            if ( null != eventLog )
+            {
+                eventLog.getParentFile().mkdirs();
+                processor.setEventLog( new EventLog( eventLog, getLog().isDebugEnabled() ? EventLog.Level.DEBUG
+                                : EventLog.Level.INFO ) );
+            }
+            if ( null != rewriteResources )
+            {
+                processor.setRewrittenResources( rewriteResources );
+            }
+            processors.add( processor );
+            final List<File> outputFiles = new ArrayList<File>();
+            outputFiles.add( outputFile );
+            final List<Metrics> variantStats = new ArrayList<Metrics>();
+            if ( null != variants )
+            {
+                for ( final Variant variant : variants )
+                {
+                    if ( null == variant.getRules() || null == variant.getOutput() )
+                    {
+                        throw new MojoExecutionException( "A variant requires rules and an output" );
+                    }
+                    final File variantFile = new File( variant.getOutput() );
+                    if ( variantFile.equals( inputFile ) )
+                    {
+                        throw new MojoExecutionException( "The output of a variant must differ from the input" );
+                    }
+                    final Metrics variantMetrics = new Metrics();
+                    variantStats.add( variantMetrics );
+                    final MainProcessor variantProcessor =
+                        new MainProcessor( CompiledRules.Cache.shared().get( variant.getRules() ), null,
+                                           getLog().isDebugEnabled(), skipManifest, metrics ? variantMetrics : null );
+                    processors.add( variantProcessor );
+                    if ( null != variant.getMappingOutput() )
+                    {
+                        variant.getMappingOutput().getParentFile().mkdirs();
+                        variantProcessor.setMappingOutput( new Mapping.Output( variant.getMappingOutput() ) );
+                    }
+                    if ( null != rewriteResources )
+                    {
+                        variantProcessor.setRewrittenResources( rewriteResources );
+                    }
+                    outputFiles.add( variantFile );
+                }
+            }
+            final CompressionPolicy policy = new CompressionPolicy();
+            policy.setLevel( compressionLevel );
+            policy.setStoreIntermediates( storeIntermediates );
+            policy.setStoredExtensions( storedExtensions );
             final AndArtifactFilter filter = new AndArtifactFilter();
             if ( null != includes )
             {
@@ -187,29 +369,67 @@ public class JarJarMojo
 
             archiver.setDestFile( uberZip );
 
-            if ( inputFile.isDirectory() )
+            final ShadedCache cache = null != shadedCache ? getShadedCache() : null;
+            final List<Artifact> dependencies = new ArrayList<Artifact>();
+            final List<File> preShaded = new ArrayList<File>();
+            final List<File> archives = new ArrayList<File>();
+            if ( !inputFile.isDirectory() )
             {
-                archiver.addDirectory( inputFile );
+                archives.add( inputFile );
             }
-            else
-            {
-                archiver.addArchivedFileSet( inputFile );
-            }
-
             for ( final Artifact a : (Set<Artifact>) project.getArtifacts() )
             {
-                if ( filter.include( a ) )
+                if ( !filter.include( a ) )
+                {
+                    continue;
+                }
+                final boolean isFile = null != a.getFile() && a.getFile().isFile();
+                if ( null != cache && isFile && !a.isSnapshot() )
                 {
                     try
                     {
-                        archiver.addArchivedFileSet( a.getFile(), null, META_INF_EXCLUDES );
+                        preShaded.add( preShade( a, cache, policy ) );
+                        continue;
                     }
-                    catch ( final Throwable e )
+                    catch ( final IOException e )
                     {
-                        getLog().info( "Ignoring: " + a );
+                        // not a jar, such as a pom or a native library: handled as without the cache
+                        getLog().debug( "Not shading into cache: " + a );
                         getLog().debug( e );
                     }
                 }
+                dependencies.add( a );
+                if ( isFile )
+                {
+                    archives.add( a.getFile() );
+                }
+            }
+            addMergedResources( archiver, processor, inputFile.isDirectory() ? inputFile : null, archives );
+            if ( storeIntermediates && archiver instanceof AbstractZipArchiver )
+            {
+                ( (AbstractZipArchiver) archiver ).setCompress( false );
+            }
+
+            if ( inputFile.isDirectory() )
+            {
+                archiver.addDirectory( inputFile );
+            }
+            else
+            {
+                archiver.addArchivedFileSet( inputFile );
+            }
+
+            for ( final Artifact a : dependencies )
+            {
+                try
+                {
+                    archiver.addArchivedFileSet( a.getFile(), null, META_INF_EXCLUDES );
+                }
+                catch ( final Throwable e )
+                {
+                    getLog().info( "Ignoring: " + a );
+                    getLog().debug( e );
+                }
             }
 
             if ( !archiver.getResources().hasNext() )
@@ -218,18 +438,71 @@ public class JarJarMojo
                 return;
             }
 
+            Metrics.Phase phase = stats.startPhase( "uber-zip" );
             archiver.createArchive();
+            phase.setBytesOut( uberZip.length() );
+            phase.end();
 
             // JARJAR UBER-ZIP
 
             getLog().info( "JarJar'ing to: " + outputFile );
 
-            final File hullZip = new File( workingDirectory, "hull-" + inputFile.getName() );
+            final List<File> hullZips = new ArrayList<File>();
+            final List<Boolean> toDirectories = new ArrayList<Boolean>();
+            boolean allToDirectories = true;
+            for ( int i = 0; i < outputFiles.size(); i++ )
+            {
+                final File file = outputFiles.get( i );
+                hullZips.add( new File( workingDirectory, ( i == 0 ? "hull-" : "hull" + i + "-" ) + inputFile.getName() ) );
+                final boolean toDirectory = file.isDirectory() || !file.exists() && inputFile.isDirectory();
+                toDirectories.add( toDirectory );
+                allToDirectories &= toDirectory;
+            }
 
-            StandaloneJarProcessor.run( uberZip, hullZip, processor, true );
-            processor.strip( hullZip );
+            // the hulls are only intermediate archives when they are unpacked into directories
+            final CompressionPolicy hullPolicy = allToDirectories ? policy.intermediate() : policy;
 
-            final boolean toDirectory = outputFile.isDirectory() || !outputFile.exists() && inputFile.isDirectory();
+            phase = stats.startPhase( "transform" );
+            phase.setBytesIn( uberZip.length() );
+            if ( processors.size() == 1 )
+            {
+                StandaloneJarProcessor.run( uberZip, hullZips.get( 0 ), processor, true, hullPolicy );
+            }
+            else
+            {
+                getLog().info( "Variants: " + outputFiles.subList( 1, outputFiles.size() ) );
+                StandaloneJarProcessor.run( uberZip, hullZips, processors, true, hullPolicy );
+            }
+            phase.setBytesOut( totalLength( hullZips ) );
+            phase.end();
+
+            if ( !preShaded.isEmpty() )
+            {
+                final File splicedZip = new File( workingDirectory, "spliced-" + inputFile.getName() );
+                phase = stats.startPhase( "splice" );
+                phase.setBytesIn( hullZips.get( 0 ).length() + totalLength( preShaded ) );
+                ShadedCache.splice( hullZips.get( 0 ), preShaded, splicedZip, processor, hullPolicy );
+                phase.setBytesOut( splicedZip.length() );
+                phase.end();
+                hullZips.set( 0, splicedZip );
+            }
+            for ( final MainProcessor p : processors )
+            {
+                if ( p.getDuplicateCount() > 0 )
+                {
+                    getLog().info( "Skipped " + p.getDuplicateCount() + " duplicate entries, "
+                        + p.getConflictCount() + " of them with different content" );
+                }
+            }
+
+            phase = stats.startPhase( "strip" );
+            phase.setBytesIn( totalLength( hullZips ) );
+            for ( int i = 0; i < processors.size(); i++ )
+            {
+                processors.get( i ).strip( hullZips.get( i ), hullPolicy );
+            }
+            phase.setBytesOut( totalLength( hullZips ) );
+            phase.end();
 
             if ( inPlaceJarJar )
             {
@@ -244,22 +517,228 @@ public class JarJarMojo
                 }
             }
 
-            if ( toDirectory )
+            phase = stats.startPhase( toDirectories.get( 0 ) ? "unarchive" : "copy" );
+            phase.setBytesIn( totalLength( hullZips ) );
+            long bytesOut = 0;
+            for ( int i = 0; i < outputFiles.size(); i++ )
+            {
+                final File file = outputFiles.get( i );
+                if ( toDirectories.get( i ) )
+                {
+                    file.mkdirs();
+                    final UnArchiver unarchiver = archiverManager.getUnArchiver( "zip" );
+                    unarchiver.setDestDirectory( file );
+                    unarchiver.setSourceFile( hullZips.get( i ) );
+                    unarchiver.extract();
+                }
+                else
+                {
+                    FileUtils.copyFile( hullZips.get( i ), file );
+                    bytesOut += file.length();
+                }
+            }
+            if ( bytesOut > 0 )
             {
-                outputFile.mkdirs();
-                final UnArchiver unarchiver = archiverManager.getUnArchiver( "zip" );
-                unarchiver.setDestDirectory( outputFile );
-                unarchiver.setSourceFile( hullZip );
-                unarchiver.extract();
+                phase.setBytesOut( bytesOut );
             }
-            else
+            phase.end();
+
+            if ( metrics )
             {
-                FileUtils.copyFile( hullZip, outputFile );
+                final File report = new File( workingDirectory, "jarjar-metrics.json" );
+                stats.writeJson( report );
+                for ( final String line : stats.summarize() )
+                {
+                    getLog().info( line );
+                }
+                getLog().info( "Metrics: " + report );
+                for ( int i = 0; i < variantStats.size(); i++ )
+                {
+                    final String name = outputFiles.get( i + 1 ).getName();
+                    final File variantReport = new File( workingDirectory, "jarjar-metrics-" + name + ".json" );
+                    variantStats.get( i ).writeJson( variantReport );
+                    for ( final String line : variantStats.get( i ).summarize() )
+                    {
+                        getLog().info( name + ": " + line );
+                    }
+                    getLog().info( "Metrics for " + name + ": " + variantReport );
+                }
             }
         }
         catch ( final Throwable e )
         {
             throw new MojoExecutionException( "Unable to JarJar: " + input + " cause: " + e.getMessage(), e );
         }
+        finally
+        {
+            if ( processors.isEmpty() && null != processor )
+            {
+                processors.add( processor );
+            }
+            for ( final MainProcessor p : processors )
+            {
+                try
+                {
+                    p.close();
+                }
+                catch ( final IOException e )
+                {
+                    getLog().warn( e.toString() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the hash of everything that the shaded dependencies depend on besides their own content, or
+     * <code>null</code> if they cannot be shaded apart from the rest of the input.
+     */
+    private ShadedCache getShadedCache()
+    {
+        if ( null != variants || null != mappingInput || null != mappingOutput )
+        {
+            getLog().debug( "Not using the shaded cache with variants or mapping files" );
+            return null;
+        }
+        for ( final PatternElement rule : rules )
+        {
+            if ( rule instanceof Keep )
+            {
+                getLog().debug( "Not using the shaded cache with keep rules" );
+                return null;
+            }
+        }
+        final String version = null != plugin ? plugin.getVersion() : null;
+        return new ShadedCache( shadedCache, ShadedCache.getKey( rules, skipManifest, rewriteResources, version ) );
+    }
+
+    /**
+     * Returns the dependency shaded with the current rules from the shaded cache, after shading it into the cache if
+     * it is not there yet.
+     */
+    private File preShade( final Artifact a, final ShadedCache cache, final CompressionPolicy policy )
+        throws IOException
+    {
+        final File file = cache.getFile( a.getGroupId(), a.getArtifactId(), a.getVersion(), a.getClassifier() );
+        if ( file.isFile() )
+        {
+            getLog().debug( "Pre-shaded: " + file );
+            return file;
+        }
+        getLog().info( "Shading into cache: " + a );
+        final MainProcessor dependencyProcessor =
+            new MainProcessor( CompiledRules.Cache.shared().get( rules ), null, getLog().isDebugEnabled(), skipManifest,
+                               null );
+        if ( null != rewriteResources )
+        {
+            dependencyProcessor.setRewrittenResources( rewriteResources );
+        }
+        try
+        {
+            cache.put( a.getFile(), file, dependencyProcessor, policy );
+        }
+        finally
+        {
+            dependencyProcessor.close();
+        }
+        return file;
+    }
+
+    private static long totalLength( final List<File> files )
+    {
+        long length = 0;
+        for ( final File file : files )
+        {
+            length += file.length();
+        }
+        return length;
+    }
+
+    /**
+     * The uber-zip only keeps the first copy of each path, so resources that are merged (such as service files) are
+     * merged across the input and the dependencies beforehand and added first.
+     */
+    private void addMergedResources( final Archiver archiver, final MainProcessor processor, final File directory,
+                                     final List<File> archives )
+        throws Exception
+    {
+        final Map<String, byte[]> contents = new LinkedHashMap<String, byte[]>();
+        final Set<String> merged = new HashSet<String>();
+        if ( null != directory )
+        {
+            for ( final String path : FileUtils.getFileNames( directory, "**", null, false ) )
+            {
+                final String name = path.replace( File.separatorChar, '/' );
+                if ( processor.isMergeable( name ) )
+                {
+                    contents.put( name, readFully( new FileInputStream( new File( directory, path ) ) ) );
+                }
+            }
+        }
+        for ( final File archive : archives )
+        {
+            try
+            {
+                final ZipFile zip = new ZipFile( archive );
+                try
+                {
+                    for ( final Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements(); )
+                    {
+                        final ZipEntry entry = e.nextElement();
+                        if ( entry.isDirectory() || !processor.isMergeable( entry.getName() ) )
+                        {
+                            continue;
+                        }
+                        final byte[] data = readFully( zip.getInputStream( entry ) );
+                        final byte[] first = contents.get( entry.getName() );
+                        if ( null == first )
+                        {
+                            contents.put( entry.getName(), data );
+                        }
+                        else
+                        {
+                            contents.put( entry.getName(), processor.merge( entry.getName(), first, data ) );
+                            merged.add( entry.getName() );
+                        }
+                    }
+                }
+                finally
+                {
+                    zip.close();
+                }
+            }
+            catch ( final IOException e )
+            {
+                getLog().debug( "Not merging resources of: " + archive, e );
+            }
+        }
+        for ( final String name : merged )
+        {
+            final File file = new File( workingDirectory, "merged/" + name );
+            FileUtils.forceMkdir( file.getParentFile() );
+            final OutputStream out = new FileOutputStream( file );
+            try
+            {
+                out.write( contents.get( name ) );
+            }
+            finally
+            {
+                IOUtil.close( out );
+            }
+            archiver.addFile( file, name );
+        }
+    }
+
+    private static byte[] readFully( final InputStream in )
+        throws IOException
+    {
+        try
+        {
+            return IOUtil.toByteArray( in );
+        }
+        finally
+        {
+            IOUtil.close( in );
+        }
     }
 }
@@ -25,6 +25,15 @@ import org.apache.tools.ant.BuildException;
 public class JarJarTask extends AntJarProcessor
 {
     private List<PatternElement> patterns = new ArrayList<PatternElement>();
+    private String rewriteResources;
+
+    /**
+     * Sets the comma-separated paths of the text resources whose class names
+     * are renamed, instead of the service files and Spring mappings.
+     */
+    public void setRewriteResources(String rewriteResources) {
+        this.rewriteResources = rewriteResources;
+    }
 
     public void addConfiguredRule(Rule rule) {
         if (rule.getPattern() == null || rule.getResult() == null)
@@ -45,17 +54,24 @@ public class JarJarTask extends AntJarProcessor
     }
 
     public void execute() throws BuildException {
-        MainProcessor proc = new MainProcessor(patterns, verbose, false);
-        execute(proc);
+        MainProcessor proc = new MainProcessor(CompiledRules.Cache.shared().get(patterns), null, verbose, false, null);
+        if (rewriteResources != null)
+            proc.setRewrittenResources(Arrays.asList(rewriteResources.split(",")));
         try {
-            proc.strip(getDestFile());
-        } catch (IOException e) {
-            throw new BuildException(e);
+            // classes that keep rules exclude are left out as the jar is written
+            execute(proc);
+        } finally {
+            try {
+                proc.close();
+            } catch (IOException e) {
+                log(e.toString());
+            }
         }
     }
 
     protected void cleanHelper() {
         super.cleanHelper();
         patterns.clear();
+        rewriteResources = null;
     }
 }
@@ -24,6 +24,12 @@ import org.objectweb.asm.Type;
 import org.objectweb.asm.commons.*;
 
 // TODO: this can probably be refactored into JarClassVisitor, etc.
+/**
+ * Collects the keep roots and the dependencies of the classes it processes.
+ * The dependencies of the current class are gathered in a field, so each
+ * thread needs its own processor; their graphs are combined with
+ * {@link #merge}.
+ */
 class KeepProcessor extends Remapper implements JarProcessor
 {
     private final ClassVisitor cv = new RemappingClassAdapter(new EmptyClassVisitor(), this);
@@ -40,13 +46,49 @@ class KeepProcessor extends Remapper implements JarProcessor
     }
 
     public Set<String> getExcludes() {
+        JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.KEEP_CLOSURE.begin() : null;
         Set<String> closure = new HashSet<String>();
         closureHelper(closure, roots);
         Set<String> removable = new HashSet<String>(depend.keySet());
         removable.removeAll(closure);
+        if (event != null)
+            event.set(0, roots.size()).set(1, depend.size()).set(2, removable.size()).commit();
         return removable;
     }
 
+    /** Adds the roots and dependencies found by <code>other</code>. */
+    public void merge(KeepProcessor other) {
+        roots.addAll(other.roots);
+        depend.putAll(other.depend);
+    }
+
+    /** Writes the roots and dependencies found so far, for {@link #readGraph}. */
+    public void writeGraph(DataOutputStream out) throws IOException {
+        out.writeInt(roots.size());
+        for (String root : roots)
+            out.writeUTF(root);
+        out.writeInt(depend.size());
+        for (Map.Entry<String, Set<String>> entry : depend.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().size());
+            for (String name : entry.getValue())
+                out.writeUTF(name);
+        }
+    }
+
+    /** Adds the roots and dependencies found by another processor, such as one for another part of the input. */
+    public void readGraph(DataInputStream in) throws IOException {
+        for (int i = in.readInt(); i > 0; i--)
+            roots.add(in.readUTF());
+        for (int i = in.readInt(); i > 0; i--) {
+            String name = in.readUTF();
+            Set<String> names = new HashSet<String>();
+            for (int j = in.readInt(); j > 0; j--)
+                names.add(in.readUTF());
+            depend.put(name, names);
+        }
+    }
+
     private void closureHelper(Set<String> closure, Collection<String> process) {
         if (process == null)
             return;
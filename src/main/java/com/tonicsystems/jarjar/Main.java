@@ -19,6 +19,7 @@ package com.tonicsystems.jarjar;
 import com.tonicsystems.jarjar.util.*;
 import java.io.*;
 import java.util.*;
+import java.util.regex.Pattern;
 
 public class Main {
 
@@ -46,19 +47,44 @@ public class Main {
   private List patterns;
   private int level = DepHandler.LEVEL_CLASS;
 
+  private final Properties properties;
+  private final PrintStream out;
+  private final PrintStream err;
+  private final CompiledRules.Cache rulesCache;
+
+  public Main() {
+    this(System.getProperties(), System.out, System.err, null);
+  }
+
+  /**
+   * @param properties read instead of the system properties
+   * @param rulesCache if not <code>null</code>, rules files with the same
+   *        content share their compiled rules
+   */
+  Main(Properties properties, PrintStream out, PrintStream err, CompiledRules.Cache rulesCache) {
+    this.properties = properties;
+    this.out = out;
+    this.err = err;
+    this.rulesCache = rulesCache;
+  }
+
   public static void main(String[] args) throws Exception {
     MainUtil.runMain(new Main(), args, "help");
   }
 
   public void help() {
-    System.err.print(HELP);
+    err.print(HELP);
   }
 
-  public void strings(String cp) throws IOException {
+  public void strings(String cp, String pattern) throws IOException {
     if (cp == null) {
       throw new IllegalArgumentException("cp is required");
     }
-    new StringDumper().run(cp, new PrintWriter(System.out));
+    StringDumper dumper = new StringDumper();
+    if (pattern != null)
+      dumper.setPattern(Pattern.compile(pattern));
+    dumper.setLineNumbers(getBoolean("lines"));
+    dumper.run(cp, new PrintWriter(out));
   }
 
   // TODO: make level an enum
@@ -77,7 +103,7 @@ public class Main {
     } else {
       throw new IllegalArgumentException("unknown level " + level);
     }
-    PrintWriter w = new PrintWriter(System.out);
+    PrintWriter w = new PrintWriter(out);
     DepHandler handler = new TextDepHandler(w, levelFlag);
     new DepFind().run(cp1, cp2, handler);
     w.flush();
@@ -87,11 +113,189 @@ public class Main {
     if (rulesFile == null || inJar == null || outJar == null) {
       throw new IllegalArgumentException("rulesFile, inJar, and outJar are required");
     }
-    List<PatternElement> rules = RulesFileParser.parse(rulesFile);
-    boolean verbose = Boolean.getBoolean("verbose");
-    boolean skipManifest = Boolean.getBoolean("skipManifest");
-    MainProcessor proc = new MainProcessor(rules, verbose, skipManifest);
-    StandaloneJarProcessor.run(inJar, outJar, proc);
-    proc.strip(outJar);
+    CompressionPolicy policy = getCompressionPolicy();
+    int shards = getInteger("shards", 1);
+    if (isStandardStream(inJar) || isStandardStream(outJar)) {
+      if (out != System.out)
+        throw new IllegalArgumentException("The standard streams cannot be used by the daemon");
+      if (shards > 1)
+        throw new IllegalArgumentException("The standard streams cannot be used with shards");
+      processStream(rulesFile, inJar, outJar, policy);
+      return;
+    }
+    if (shards > 1) {
+      new ShardedProcessor(this, rulesFile, shards).run(inJar, outJar, policy);
+      return;
+    }
+    String mappingOut = getProperty("mappingOut");
+    MainProcessor proc = createProcessor(rulesFile, mappingOut != null ? new File(mappingOut) : null);
+    try {
+      int threads = getInteger("threads", 1);
+      if (threads > 1) {
+        StandaloneJarProcessor.run(inJar, outJar, proc, false, policy, threads);
+      } else {
+        StandaloneJarProcessor.run(inJar, outJar, proc, false, policy);
+      }
+      proc.strip(outJar, policy);
+    } finally {
+      proc.close();
+    }
+  }
+
+  // reads from standard input or writes to standard output, without temporary files
+  private void processStream(File rulesFile, File inJar, File outJar, CompressionPolicy policy) throws IOException {
+    String mappingOut = getProperty("mappingOut");
+    MainProcessor proc = createProcessor(rulesFile, mappingOut != null ? new File(mappingOut) : null);
+    try {
+      InputStream in = isStandardStream(inJar) ? System.in : new FileInputStream(inJar);
+      OutputStream os = isStandardStream(outJar) ? System.out : new FileOutputStream(outJar);
+      StandaloneJarProcessor.run(in, os, proc, false, policy);
+    } finally {
+      proc.close();
+    }
+  }
+
+  private static boolean isStandardStream(File file) {
+    return file.getName().equals("-");
+  }
+
+  public void batch(File rulesFile, File inputs, File outDir) throws IOException {
+    if (rulesFile == null || inputs == null) {
+      throw new IllegalArgumentException("rulesFile and inputs are required");
+    }
+    List<File[]> jars = new ArrayList<File[]>();
+    if (outDir == null) {
+      // a manifest of input and output jars
+      File base = inputs.getAbsoluteFile().getParentFile();
+      BufferedReader r = new BufferedReader(new FileReader(inputs));
+      try {
+        String line;
+        while ((line = r.readLine()) != null) {
+          line = line.trim();
+          if (line.length() == 0 || line.startsWith("#"))
+            continue;
+          String[] parts = line.split("\\s+");
+          if (parts.length != 2)
+            throw new IllegalArgumentException("Expected an input and an output jar: " + line);
+          jars.add(new File[]{ resolve(base, parts[0]), resolve(base, parts[1]) });
+        }
+      } finally {
+        r.close();
+      }
+    } else {
+      // a glob of input jars, written to outDir under the same names
+      File dir = inputs.getAbsoluteFile().getParentFile();
+      Pattern glob = compileGlob(inputs.getName());
+      File[] files = dir.listFiles();
+      if (files != null) {
+        Arrays.sort(files);
+        for (File file : files) {
+          if (file.isFile() && glob.matcher(file.getName()).matches())
+            jars.add(new File[]{ file, new File(outDir, file.getName()) });
+        }
+      }
+      outDir.mkdirs();
+    }
+    String mappingIn = getProperty("mappingIn");
+    String mappingOut = getProperty("mappingOut");
+    new BatchProcessor(this, compile(rulesFile),
+                       mappingIn != null ? Mapping.read(new File(mappingIn)) : null,
+                       mappingOut != null ? new Mapping.Output(new File(mappingOut)) : null,
+                       getInteger("threads", Runtime.getRuntime().availableProcessors()))
+      .run(jars, getCompressionPolicy());
+  }
+
+  private static Pattern compileGlob(String glob) {
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < glob.length(); i++) {
+      char c = glob.charAt(i);
+      if (c == '*') {
+        sb.append(".*");
+      } else if (c == '?') {
+        sb.append('.');
+      } else {
+        sb.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return Pattern.compile(sb.toString());
+  }
+
+  private static File resolve(File base, String path) {
+    File file = new File(path);
+    return file.isAbsolute() ? file : new File(base, path);
+  }
+
+  public void daemon(Integer port) throws IOException {
+    new Daemon(port != null ? port : 0, Daemon.getDefaultTokenDirectory()).run();
+  }
+
+  public void client(Integer port, String[] args) throws IOException {
+    if (port == null || args.length == 0) {
+      throw new IllegalArgumentException("port and command are required");
+    }
+    int status = Daemon.send(Daemon.getDefaultTokenDirectory(), port, args, System.out, System.err);
+    if (status != 0)
+      System.exit(status);
+  }
+
+  // also used by ShardedProcessor and its workers
+  MainProcessor createProcessor(File rulesFile, File mappingOut) throws IOException {
+    String mappingIn = getProperty("mappingIn");
+    return createProcessor(compile(rulesFile),
+                           mappingIn != null ? Mapping.read(new File(mappingIn)) : null,
+                           mappingOut != null ? new Mapping.Output(mappingOut) : null);
+  }
+
+  MainProcessor createProcessor(CompiledRules rules, Mapping mapping, Mapping.Output mappingOut) {
+    boolean verbose = getBoolean("verbose");
+    boolean skipManifest = getBoolean("skipManifest");
+    MainProcessor proc = new MainProcessor(rules, mapping, verbose, skipManifest, null);
+    if (verbose && err != System.err)
+      proc.setEventLog(EventLog.toStream(err, EventLog.Level.DEBUG));
+    if (mappingOut != null)
+      proc.setMappingOutput(mappingOut);
+    String resources = getProperty("rewriteResources");
+    if (resources != null)
+      proc.setRewrittenResources(Arrays.asList(resources.split(",")));
+    return proc;
+  }
+
+  private CompiledRules compile(File rulesFile) throws IOException {
+    return rulesCache != null ? rulesCache.get(rulesFile) : new CompiledRules(RulesFileParser.parse(rulesFile));
+  }
+
+  CompressionPolicy getCompressionPolicy() {
+    CompressionPolicy policy = new CompressionPolicy();
+    policy.setLevel(getInteger("compressionLevel", policy.getLevel()));
+    policy.setStoreIntermediates(!"false".equals(getProperty("storeIntermediates")));
+    policy.setStoredExtensions(getProperty("storedExtensions", CompressionPolicy.DEFAULT_STORED_EXTENSIONS));
+    return policy;
+  }
+
+  PrintStream getErrorStream() {
+    return err;
+  }
+
+  String getProperty(String name) {
+    return properties.getProperty(name);
+  }
+
+  private String getProperty(String name, String def) {
+    return properties.getProperty(name, def);
+  }
+
+  private boolean getBoolean(String name) {
+    return "true".equalsIgnoreCase(getProperty(name));
+  }
+
+  private int getInteger(String name, int def) {
+    String value = getProperty(name);
+    if (value == null)
+      return def;
+    try {
+      return Integer.decode(value);
+    } catch (NumberFormatException e) {
+      return def;
+    }
   }
 }
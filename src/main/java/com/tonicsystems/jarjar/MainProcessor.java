@@ -17,33 +17,87 @@
 package com.tonicsystems.jarjar;
 
 import com.tonicsystems.jarjar.util.*;
-import java.io.File;
-import java.io.IOException;
+import java.io.*;
 import java.util.*;
 
-class MainProcessor implements JarProcessor
+/**
+ * Applies a rules file to the entries of a jar.
+ * <p>
+ * A processor keeps caches and what it found, such as renamed classes and
+ * keep dependencies, so it handles one entry at a time. To process entries
+ * on several threads, each gets a {@link #createWorker worker} that shares the
+ * compiled rules, logs and mapping output, and the workers are
+ * {@link #merge merged} back when they are done.
+ */
+class MainProcessor implements DuplicateAwareJarProcessor, MergingJarProcessor, StrippingJarProcessor,
+                               JarProcessorFactory<MainProcessor>
 {
-    private final boolean verbose;
     private final JarProcessorChain chain;
     private final KeepProcessor kp;
+    private final PackageRemapper pr;
+    private final ResourceContentProcessor rcp;
     private final Map<String, String> renames = new HashMap<String, String>();
-    
+    private final CompiledRules rules;
+    private final Mapping mapping;
+    private final boolean skipManifest;
+    private List<String> resources;
+    private final Metrics metrics;
+    private final Metrics.Counter processed, renamed, removed;
+    private int duplicates, conflicts;
+    private EventLog log;
+    private Mapping.Output mappingOut;
+
     public MainProcessor(List<PatternElement> patterns, boolean verbose, boolean skipManifest) {
-        this.verbose = verbose;
+        this(patterns, verbose, skipManifest, null);
+    }
+
+    /**
+     * @param metrics if not <code>null</code>, each processor of the chain is
+     *        measured and rule and cache hits are counted
+     */
+    public MainProcessor(List<PatternElement> patterns, boolean verbose, boolean skipManifest, Metrics metrics) {
+        this(patterns, null, verbose, skipManifest, metrics);
+    }
+
+    /**
+     * @param mapping if not <code>null</code>, classes, resources and strings
+     *        are renamed by looking them up in this mapping, and the rename
+     *        rules of <code>patterns</code> are ignored
+     */
+    public MainProcessor(List<PatternElement> patterns, Mapping mapping, boolean verbose, boolean skipManifest, Metrics metrics) {
+        this(new CompiledRules(patterns), mapping, verbose, skipManifest, metrics);
+    }
+
+    /**
+     * @param rules may be shared with other processors, see {@link CompiledRules}
+     */
+    public MainProcessor(CompiledRules rules, Mapping mapping, boolean verbose, boolean skipManifest, Metrics metrics) {
+        this.rules = rules;
+        this.mapping = mapping;
+        this.skipManifest = skipManifest;
+        this.metrics = metrics;
+        if (metrics != null) {
+            processed = metrics.getCounter("entries.processed");
+            renamed = metrics.getCounter("entries.renamed");
+            removed = metrics.getCounter("entries.removed");
+        } else {
+            processed = renamed = removed = null;
+        }
         List<Zap> zapList = new ArrayList<Zap>();
-        List<Rule> ruleList = new ArrayList<Rule>();
         List<Keep> keepList = new ArrayList<Keep>();
-        for (PatternElement pattern : patterns) {
+        for (PatternElement pattern : rules.getPatterns()) {
             if (pattern instanceof Zap) {
                 zapList.add((Zap) pattern);
-            } else if (pattern instanceof Rule) {
-                ruleList.add((Rule) pattern);
             } else if (pattern instanceof Keep) {
                 keepList.add((Keep) pattern);
             }
         }
 
-        PackageRemapper pr = new PackageRemapper(ruleList, verbose);
+        pr = mapping != null ? new PackageRemapper(mapping, verbose) : new PackageRemapper(rules, verbose);
+        if (verbose)
+            setEventLog(EventLog.toStandardError(EventLog.Level.DEBUG));
+        if (metrics != null)
+            pr.setMetrics(metrics);
         kp = keepList.isEmpty() ? null : new KeepProcessor(keepList);
 
         List<JarProcessor> processors = new ArrayList<JarProcessor>();
@@ -53,16 +107,80 @@ class MainProcessor implements JarProcessor
             processors.add(kp);
         processors.add(new ZapProcessor(zapList));
         processors.add(new JarTransformerChain(new RemappingClassTransformer[]{ new RemappingClassTransformer(pr) }));
+        rcp = new ResourceContentProcessor(pr, pr.getPrefixMatcher());
+        processors.add(rcp);
         processors.add(new ResourceProcessor(pr));
+        if (metrics != null) {
+            for (int i = 0; i < processors.size(); i++) {
+                JarProcessor proc = processors.get(i);
+                processors.set(i, new MeasuredJarProcessor(proc.getClass().getSimpleName(), proc, metrics));
+            }
+        }
         chain = new JarProcessorChain(processors.toArray(new JarProcessor[processors.size()]));
     }
 
     public void strip(File file) throws IOException {
+        strip(file, new CompressionPolicy());
+    }
+
+    public void strip(File file, CompressionPolicy policy) throws IOException {
         if (kp == null)
             return;
+        JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.STRIP.begin() : null;
         Set<String> excludes = getExcludes();
+        if (metrics != null)
+            metrics.getCounter("entries.stripped").add(excludes.size());
         if (!excludes.isEmpty())
-            StandaloneJarProcessor.run(file, file, new ExcludeProcessor(excludes, verbose));
+            StandaloneJarProcessor.run(file, file, new ExcludeProcessor(excludes, log), false, policy);
+        if (event != null)
+            event.set(0, file.getPath()).set(1, excludes.size()).commit();
+    }
+
+    public boolean isStrippable(String name) {
+        return kp != null && name.endsWith(".class");
+    }
+
+    /**
+     * Returns the entries that {@link #strip} would delete from the output,
+     * for when it is not written by {@link StandaloneJarProcessor#run}.
+     */
+    public Set<String> getExcludedEntries() {
+        return kp == null ? Collections.<String>emptySet() : getExcludes();
+    }
+
+    /**
+     * Writes what {@link #getExcludedEntries} needs to know about the entries
+     * processed so far: the keep roots, the dependencies and the renames.
+     */
+    void writeState(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeBoolean(kp != null);
+            if (kp != null) {
+                kp.writeGraph(out);
+                out.writeInt(renames.size());
+                for (Map.Entry<String, String> entry : renames.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeUTF(entry.getValue());
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /** Adds the state written by another processor with the same rules, see {@link #writeState}. */
+    void readState(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readBoolean() && kp != null) {
+                kp.readGraph(in);
+                for (int i = in.readInt(); i > 0; i--)
+                    renames.put(in.readUTF(), in.readUTF());
+            }
+        } finally {
+            in.close();
+        }
     }
 
     /**
@@ -81,6 +199,110 @@ class MainProcessor implements JarProcessor
         return result;
     }
 
+    /**
+     * Sets where renamed, removed and changed entries and values are recorded.
+     * By default they are written to standard error when verbose.
+     */
+    public void setEventLog(EventLog log) {
+        this.log = log;
+        pr.setEventLog(log);
+    }
+
+    /**
+     * Writes each class, resource and string rename to <code>out</code> as it
+     * is found; see {@link Mapping}.
+     */
+    public void setMappingOutput(Mapping.Output out) {
+        this.mappingOut = out;
+        pr.setMappingOutput(out);
+    }
+
+    /** Writes out the pending records of the event log and the mapping and closes them. */
+    public void close() throws IOException {
+        try {
+            if (log != null)
+                log.close();
+        } finally {
+            if (mappingOut != null)
+                mappingOut.close();
+        }
+    }
+
+    /**
+     * Sets the resources whose content is rewritten and whose duplicates are
+     * merged; see {@link ResourceContentProcessor#DEFAULT_RESOURCES}.
+     */
+    public void setRewrittenResources(List<String> patterns) {
+        rcp.setResources(patterns);
+        resources = patterns;
+    }
+
+    /**
+     * Returns a processor with the same rules and settings, which records
+     * events and renames to the same log and mapping output as this one.
+     * What it finds is added to this processor by {@link #merge}.
+     */
+    public MainProcessor createWorker() {
+        MainProcessor worker = new MainProcessor(rules, mapping, false, skipManifest, metrics);
+        if (log != null)
+            worker.setEventLog(log);
+        if (mappingOut != null)
+            worker.setMappingOutput(mappingOut);
+        if (resources != null)
+            worker.setRewrittenResources(resources);
+        return worker;
+    }
+
+    public void merge(MainProcessor worker) {
+        renames.putAll(worker.renames);
+        if (kp != null)
+            kp.merge(worker.kp);
+    }
+
+    public boolean isMergeable(String name) {
+        return rcp.isRewritten(name);
+    }
+
+    public byte[] merge(String name, byte[] first, byte[] second) throws IOException {
+        if (log != null)
+            log.log(EventLog.Kind.MERGED, name, null, null);
+        if (metrics != null)
+            metrics.getCounter("entries.merged").increment();
+        return rcp.merge(first, second);
+    }
+
+    public String getTargetName(String name) {
+        if (rcp.isRewritten(name))
+            return null; // merged instead of skipped
+        if (name.endsWith(".class")) {
+            // JarTransformer names classes after their (renamed) class name
+            String className = name.substring(0, name.length() - 6);
+            String target = pr.map(className);
+            return (target != null ? target : className) + ".class";
+        }
+        return pr.mapPath(name);
+    }
+
+    public void duplicate(String name, String target, boolean sameContent) {
+        duplicates++;
+        if (!sameContent)
+            conflicts++;
+        if (metrics != null)
+            metrics.getCounter(sameContent ? "entries.duplicate" : "entries.conflicting").increment();
+        if (log != null)
+            log.log(sameContent ? EventLog.Kind.DUPLICATE : EventLog.Kind.CONFLICT, name, target, null);
+    }
+
+    /** Returns the number of input entries dropped because their output name was taken. */
+    public int getDuplicateCount() {
+        return duplicates;
+    }
+
+    /** Returns how many of the {@link #getDuplicateCount duplicates} differed from the entry that was kept. */
+    public int getConflictCount() {
+        return conflicts;
+    }
+
     /**
      *
      * @param struct
@@ -89,17 +311,26 @@ class MainProcessor implements JarProcessor
      */
     public boolean process(EntryStruct struct) throws IOException {
         String name = struct.name;
+        if (log != null)
+            log.setEntry(name);
         boolean keepIt = chain.process(struct);
+        if (metrics != null) {
+            processed.increment();
+            if (!keepIt)
+                removed.increment();
+            else if (!name.equals(struct.name))
+                renamed.increment();
+        }
         if (keepIt) {
             if (!name.equals(struct.name)) {
                 if (kp != null)
                     renames.put(name, struct.name);
-                if (verbose)
-                    System.err.println("Renamed " + name + " -> " + struct.name);
+                if (log != null)
+                    log.log(EventLog.Kind.RENAMED, name, struct.name, null);
             }
         } else {
-            if (verbose)
-                System.err.println("Removed " + name);
+            if (log != null)
+                log.log(EventLog.Kind.REMOVED, name, null, null);
         }
         return keepIt;
     }
@@ -17,6 +17,7 @@
 package com.tonicsystems.jarjar;
 
 import java.io.File;
+import java.io.PrintStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -25,6 +26,15 @@ import java.util.List;
 class MainUtil
 {
     public static void runMain(Object main, String[] args, String defCommand) throws Exception {
+        runMain(main, args, defCommand, null, System.err);
+    }
+
+    /**
+     * @param dir relative file arguments are resolved against this directory,
+     *        or the working directory if <code>null</code>
+     * @param err where syntax errors are reported
+     */
+    public static void runMain(Object main, String[] args, String defCommand, File dir, PrintStream err) throws Exception {
         if (args.length > 0) {
             String command = args[0];
             Method[] methods = main.getClass().getMethods();
@@ -34,11 +44,11 @@ class MainUtil
                     String[] remaining = new String[args.length - 1];
                     System.arraycopy(args, 1, remaining, 0, remaining.length);
                     try {
-                        method.invoke(main, bindParameters(method, remaining));
+                        method.invoke(main, bindParameters(method, remaining, dir));
                     } catch (InvocationTargetException e) {
                         Throwable cause = e.getCause();
                         if (cause instanceof IllegalArgumentException) {
-                            System.err.println("Syntax error: " + cause.getMessage());
+                            err.println("Syntax error: " + cause.getMessage());
                         } else if (cause instanceof Exception) {
                             throw (Exception) cause;
                         } else {
@@ -50,10 +60,10 @@ class MainUtil
             }
         }
         if (defCommand != null)
-            runMain(main, new String[]{ defCommand }, null);
+            runMain(main, new String[]{ defCommand }, null, dir, err);
     }
 
-    private static Object[] bindParameters(Method method, String[] args) {
+    private static Object[] bindParameters(Method method, String[] args, File dir) {
         List<Object> parameters = new ArrayList<Object>();
         Class[] parameterTypes = method.getParameterTypes();
         for (int i = 0, len = parameterTypes.length; i < len; i++) {
@@ -64,7 +74,7 @@ class MainUtil
                 System.arraycopy(args, 1, rest, 0, remaining);
                 parameters.add(rest);
             } else if (remaining > 0) {
-                parameters.add(convertParameter(args[i], parameterTypes[i]));
+                parameters.add(convertParameter(args[i], parameterTypes[i], dir));
             } else {
                 parameters.add(null);
             }
@@ -72,13 +82,14 @@ class MainUtil
         return parameters.toArray();
     }
 
-    private static Object convertParameter(String arg, Class type) {
+    private static Object convertParameter(String arg, Class type, File dir) {
         if (type.equals(String.class)) {
             return arg;
         } else if (type.equals(Integer.class)) {
             return Integer.valueOf(arg, 10);
         } else if (type.equals(File.class)) {
-            return new File(arg);
+            File file = new File(arg);
+            return dir == null || file.isAbsolute() ? file : new File(dir, arg);
         } else {
             throw new UnsupportedOperationException("Unknown type " + type);
         }
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.RuntimeIOException;
+import java.io.*;
+import java.util.*;
+
+/**
+ * The renames made by a jarjar run: classes by internal name, resource paths
+ * and string constants.
+ * <p>
+ * A mapping file has one rename per line with three tab separated fields:
+ * the kind (<code>class</code>, <code>resource</code> or <code>string</code>),
+ * the old value and the new value. Tabs, line breaks and backslashes in the
+ * values are escaped with a backslash. Empty lines and lines starting with
+ * <code>#</code> are ignored.
+ */
+class Mapping
+{
+    public static final String CLASS = "class";
+    public static final String RESOURCE = "resource";
+    public static final String STRING = "string";
+
+    private final Map<String, String> classes = new HashMap<String, String>();
+    private final Map<String, String> resources = new HashMap<String, String>();
+    private final Map<String, String> strings = new HashMap<String, String>();
+
+    public static Mapping read(File file) throws IOException {
+        return read(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    }
+
+    public static Mapping read(Reader r) throws IOException {
+        try {
+            Mapping mapping = new Mapping();
+            BufferedReader br = new BufferedReader(r);
+            int c = 0;
+            String line;
+            while ((line = br.readLine()) != null) {
+                c++;
+                if (line.length() == 0 || line.startsWith("#"))
+                    continue;
+                String[] parts = line.split("\t", -1);
+                if (parts.length != 3)
+                    throw new IllegalArgumentException("Error on line " + c + ": " + line);
+                mapping.put(parts[0], unescape(parts[1]), unescape(parts[2]));
+            }
+            return mapping;
+        } finally {
+            r.close();
+        }
+    }
+
+    public void put(String kind, String oldValue, String newValue) {
+        getRenames(kind).put(oldValue, newValue);
+    }
+
+    public void putAll(Mapping other) {
+        classes.putAll(other.classes);
+        resources.putAll(other.resources);
+        strings.putAll(other.strings);
+    }
+
+    /** Returns the renames of one kind, keyed by old value. */
+    public Map<String, String> getRenames(String kind) {
+        if (kind.equals(CLASS))
+            return classes;
+        if (kind.equals(RESOURCE))
+            return resources;
+        if (kind.equals(STRING))
+            return strings;
+        throw new IllegalArgumentException("Unknown kind " + kind);
+    }
+
+    /**
+     * Returns the directories of the renamed classes and resources and the
+     * package part of the renamed strings. Any name that the mapping renames
+     * starts with, or for strings contains, one of these.
+     */
+    Set<String> getPrefixes() {
+        Set<String> prefixes = new HashSet<String>();
+        for (String name : classes.keySet())
+            prefixes.add(name.substring(0, name.lastIndexOf('/') + 1));
+        for (String path : resources.keySet()) {
+            int start = path.startsWith("/") ? 1 : 0;
+            prefixes.add(path.substring(start, Math.max(start, path.lastIndexOf('/') + 1)));
+        }
+        for (String value : strings.keySet())
+            prefixes.add(value.substring(0, Math.max(value.lastIndexOf('.'), value.lastIndexOf('/')) + 1));
+        return prefixes;
+    }
+
+    public void write(File file) throws IOException {
+        Output out = new Output(file);
+        try {
+            for (String kind : new String[]{ CLASS, RESOURCE, STRING }) {
+                for (Map.Entry<String, String> entry : getRenames(kind).entrySet())
+                    out.write(kind, entry.getKey(), entry.getValue());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '\t': sb.append("\\t"); break;
+            case '\n': sb.append("\\n"); break;
+            case '\r': sb.append("\\r"); break;
+            case '\\': sb.append("\\\\"); break;
+            default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    static String unescape(String value) {
+        if (value.indexOf('\\') < 0)
+            return value;
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < len) {
+                c = value.charAt(++i);
+                switch (c) {
+                case 't': c = '\t'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                }
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes renames to a mapping file as they are found. Can be used from
+     * several threads.
+     */
+    public static class Output
+    {
+        private final Writer out;
+        private final Set<String> written = new HashSet<String>();
+        private int users = 1;
+
+        public Output(Writer out) throws IOException {
+            this.out = out;
+            out.write("# jarjar mapping: kind, old value, new value\n");
+        }
+
+        public Output(File file) throws IOException {
+            this(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8")));
+        }
+
+        public synchronized void write(String kind, String oldValue, String newValue) {
+            // processors that share the output may find the same rename
+            if (!written.add(kind + "\t" + oldValue))
+                return;
+            try {
+                out.write(kind + "\t" + escape(oldValue) + "\t" + escape(newValue) + "\n");
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
+
+        /**
+         * Returns this output after counting another user, who must close it
+         * too: the file is closed when all of them did.
+         */
+        public synchronized Output share() {
+            users++;
+            return this;
+        }
+
+        public synchronized void close() throws IOException {
+            if (--users == 0)
+                out.close();
+        }
+    }
+}
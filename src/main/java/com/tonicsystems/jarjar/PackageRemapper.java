@@ -16,6 +16,9 @@
 
 package com.tonicsystems.jarjar;
 
+import com.tonicsystems.jarjar.util.EventLog;
+import com.tonicsystems.jarjar.util.JfrEvents;
+import com.tonicsystems.jarjar.util.Metrics;
 import org.objectweb.asm.*;
 import org.objectweb.asm.commons.*;
 import java.util.*;
@@ -24,19 +27,94 @@ import java.util.regex.Pattern;
 class PackageRemapper extends Remapper
 {
     private static final String RESOURCE_SUFFIX = "RESOURCE";
+    private static final DirectoryMapping NO_MAPPING = new DirectoryMapping(null, null, null);
+    private static final String UNCHANGED = new String("unchanged"); // cached for unmapped types
     
     private static final Pattern ARRAY_FOR_NAME_PATTERN
         = Pattern.compile("\\[L[\\p{javaJavaIdentifierPart}\\.]+?;");
 
-    private final List<Wildcard> wildcards;
+    private final CompiledRules rules;
+    private final Map<String, String> classMapping; // replaces the rules when a mapping is applied
+    private final Map<String, String> resourceMapping;
+    private final PrefixMatcher prefixes;
     private final Map<String, String> typeCache = new HashMap<String, String>();
     private final Map<String, String> pathCache = new HashMap<String, String>();
+    private final DirectoryCache<DirectoryMapping> directoryCache = new DirectoryCache<DirectoryMapping>();
     private final Map<Object, String> valueCache = new HashMap<Object, String>();
     private final boolean verbose;
+    private EventLog log;
+    private Mapping.Output mappingOut;
+    private String lastRule; // pattern of the rule that last matched
+
+    // only set when metrics are collected
+    private Metrics.Counter[] ruleHits;
+    private Metrics.Counter typeHits, typeMisses, pathHits, pathMisses, valueHits, valueMisses, valueRejects, pathRejects;
 
     public PackageRemapper(List<Rule> ruleList, boolean verbose) {
+        this(new CompiledRules(ruleList), verbose);
+    }
+
+    /**
+     * Creates a remapper for the rename rules of <code>rules</code>, which may
+     * be shared with other remappers.
+     */
+    public PackageRemapper(CompiledRules rules, boolean verbose) {
+        this.verbose = verbose;
+        this.rules = rules;
+        prefixes = rules.getPrefixMatcher();
+        classMapping = resourceMapping = null;
+    }
+
+    /**
+     * Creates a remapper that renames by exact lookup in <code>mapping</code>
+     * instead of evaluating rules. Names that are not in the mapping are not
+     * renamed, so the mapping should come from a run over the same input.
+     */
+    public PackageRemapper(Mapping mapping, boolean verbose) {
         this.verbose = verbose;
-        wildcards = PatternElement.createWildcards(ruleList);
+        rules = new CompiledRules(Collections.<Rule>emptyList());
+        prefixes = new PrefixMatcher(mapping.getPrefixes());
+        classMapping = mapping.getRenames(Mapping.CLASS);
+        resourceMapping = mapping.getRenames(Mapping.RESOURCE);
+        typeCache.putAll(classMapping);
+        pathCache.putAll(resourceMapping);
+        valueCache.putAll(mapping.getRenames(Mapping.STRING));
+    }
+
+    /** Returns the literal prefixes of the rules. */
+    PrefixMatcher getPrefixMatcher() {
+        return prefixes;
+    }
+
+    /** Counts rule matches and cache hits in <code>metrics</code>. */
+    public void setMetrics(Metrics metrics) {
+        List<Rule> ruleList = rules.getRules();
+        ruleHits = new Metrics.Counter[ruleList.size()];
+        for (int i = 0; i < ruleHits.length; i++)
+            ruleHits[i] = metrics.getCounter("rule." + i + " " + ruleList.get(i).getPattern());
+        typeHits = metrics.getCounter("cache.type.hits");
+        typeMisses = metrics.getCounter("cache.type.misses");
+        pathHits = metrics.getCounter("cache.path.hits");
+        pathMisses = metrics.getCounter("cache.path.misses");
+        pathRejects = metrics.getCounter("cache.path.rejected");
+        valueHits = metrics.getCounter("cache.value.hits");
+        valueMisses = metrics.getCounter("cache.value.misses");
+        valueRejects = metrics.getCounter("cache.value.rejected");
+    }
+
+    /** Records changed string constants in <code>log</code> instead of printing them when verbose. */
+    public void setEventLog(EventLog log) {
+        this.log = log;
+    }
+
+    /** Writes each rename to <code>out</code> when it is first computed. */
+    public void setMappingOutput(Mapping.Output out) {
+        this.mappingOut = out;
+    }
+
+    private static void count(Metrics.Counter counter) {
+        if (counter != null)
+            counter.increment();
     }
 
     // also used by KeepProcessor
@@ -47,54 +125,109 @@ class PackageRemapper extends Remapper
     public String map(String key) {
         String s = typeCache.get(key);
         if (s == null) {
-            s = replaceHelper(key);
-            if (key.equals(s))
-                s = null;
+            count(typeMisses);
+            JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.REMAPPER_CACHE_MISS.begin() : null;
+            s = replaceHelper(key, event);
+            if (event != null)
+                event.set(0, "type").set(1, key).set(2, s).commit();
+            if (key.equals(s)) {
+                typeCache.put(key, UNCHANGED);
+                return null;
+            }
+            if (mappingOut != null)
+                mappingOut.write(Mapping.CLASS, key, s);
             typeCache.put(key, s);
+        } else {
+            count(typeHits);
+            if (s == UNCHANGED)
+                return null;
         }
         return s;
     }
 
+    /**
+     * Maps a resource path by mapping its directory as if it were a package.
+     * The result for each directory, including that it is not mapped, is
+     * cached, and directories that cannot start with the prefix of a rule are
+     * rejected without a lookup, so unchanged paths cost no allocation.
+     */
     public String mapPath(String path) {
         String s = pathCache.get(path);
-        if (s == null) {
-            s = path;
-            int slash = s.lastIndexOf('/');
-            String end;
-            if (slash < 0) {
-                end = s;
-                s = RESOURCE_SUFFIX;
-            } else {
-                end = s.substring(slash + 1);
-                s = s.substring(0, slash + 1) + RESOURCE_SUFFIX;
-            }
-            boolean absolute = s.startsWith("/");
-            if (absolute) s = s.substring(1);
-            
-            s = replaceHelper(s);
-            
-            if (absolute) s = "/" + s;
-            if (s.indexOf(RESOURCE_SUFFIX) < 0)
-              return path;
-            if (end.length() > 0)
-              s = s.substring(0, s.length() - RESOURCE_SUFFIX.length()) + end;
-            else
-              s = s.substring(0, s.lastIndexOf('/') + 1);
-            pathCache.put(path, s);
+        if (s != null) {
+            count(pathHits);
+            return s;
+        }
+        // the directory is path[start, end), without a leading slash
+        int end = path.lastIndexOf('/') + 1;
+        int start = path.startsWith("/") ? 1 : 0;
+        if (resourceMapping != null || !prefixes.startsWith(path, start)) {
+            count(pathRejects);
+            return path;
+        }
+        DirectoryMapping mapping = directoryCache.get(path, start, end);
+        if (mapping == null) {
+            count(pathMisses);
+            String dir = path.substring(start, end);
+            JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.REMAPPER_CACHE_MISS.begin() : null;
+            mapping = mapDirectory(dir, event);
+            if (event != null)
+                event.set(0, "path").set(1, dir).set(2, mapping == NO_MAPPING ? dir : mapping.directory).commit();
+            directoryCache.put(dir, mapping);
+        } else {
+            count(pathHits);
         }
+        if (mapping == NO_MAPPING)
+            return path;
+        lastRule = mapping.rule;
+        StringBuilder sb = new StringBuilder(path.length() + 32);
+        if (start > 0)
+            sb.append('/');
+        if (end < path.length()) {
+            sb.append(mapping.file).append(path, end, path.length());
+        } else {
+            sb.append(mapping.directory);
+        }
+        s = sb.toString();
+        pathCache.put(path, s);
+        if (mappingOut != null)
+            mappingOut.write(Mapping.RESOURCE, path, s);
         return s;
     }
 
+    private DirectoryMapping mapDirectory(String dir, JfrEvents.Event event) {
+        lastRule = null;
+        String s = replaceHelper(dir + RESOURCE_SUFFIX, event);
+        if (s.indexOf(RESOURCE_SUFFIX) < 0)
+            return NO_MAPPING;
+        // files go where the suffix was, a trailing-slash directory path is cut after its last slash
+        return new DirectoryMapping(s.substring(0, s.length() - RESOURCE_SUFFIX.length()),
+                                    s.substring(0, s.lastIndexOf('/') + 1), lastRule);
+    }
+
     public Object mapValue(Object value) {
         if (value instanceof String) {
+            // most strings, such as messages, cannot contain a name that a rule matches
+            if (!prefixes.find((String)value)) {
+                count(valueRejects);
+                return value;
+            }
             String s = valueCache.get(value);
             if (s == null) {
+                count(valueMisses);
+                JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.REMAPPER_CACHE_MISS.begin() : null;
+                lastRule = null;
                 s = (String)value;
                 if (isArrayForName(s)) {
                     String desc1 = s.replace('.', '/');
                     String desc2 = mapDesc(desc1);
-                    if (!desc2.equals(desc1))
-                        return desc2.replace('/', '.');
+                    if (!desc2.equals(desc1)) {
+                        s = desc2.replace('/', '.');
+                        if (event != null)
+                            event.set(0, "value").set(1, value).set(2, s).commit();
+                        valueCache.put(value, s);
+                        logChange((String)value, s);
+                        return s;
+                    }
                 } else {
                     s = mapPath(s);
                     if (s.equals(value)) {
@@ -102,30 +235,65 @@ class PackageRemapper extends Remapper
                         boolean hasSlash = s.indexOf('/') >= 0;
                         if (!(hasDot && hasSlash)) {
                             if (hasDot) {
-                                s = replaceHelper(s.replace('.', '/')).replace('/', '.');
+                                s = replaceHelper(s.replace('.', '/'), event).replace('/', '.');
                             } else {
-                                s = replaceHelper(s);
+                                s = replaceHelper(s, event);
                             }
                         }
                     }
                 }
+                if (event != null)
+                    event.set(0, "value").set(1, value).set(2, s).commit();
                 valueCache.put(value, s);
+                logChange((String)value, s);
+            } else {
+                count(valueHits);
             }
-            // TODO: add back class name to verbose message
-            if (verbose && !s.equals(value))
-                System.err.println("Changed \"" + value + "\" -> \"" + s + "\"");
             return s;
         } else {
             return super.mapValue(value);
         }
     }
 
-    private String replaceHelper(String value) {
-        for (Wildcard wildcard : wildcards) {
-            String test = wildcard.replace(value);
-            if (test != null)
-                return test;
+    private String replaceHelper(String value, JfrEvents.Event event) {
+        if (classMapping != null) {
+            String s = classMapping.get(value);
+            return s != null ? s : value;
+        }
+        CompiledRules.Match match = rules.replace(value);
+        if (match.result == null)
+            return value;
+        if (ruleHits != null)
+            ruleHits[match.index].increment();
+        lastRule = match.pattern;
+        if (event != null)
+            event.set(3, lastRule);
+        return match.result;
+    }
+
+    // only called when the value is computed, so each change is reported once
+    private void logChange(String value, String s) {
+        if (s.equals(value))
+            return;
+        if (mappingOut != null)
+            mappingOut.write(Mapping.STRING, value, s);
+        if (log != null) {
+            log.log(EventLog.Kind.CHANGED, value, s, lastRule);
+        } else if (verbose) {
+            System.err.println("Changed \"" + value + "\" -> \"" + s + "\"");
+        }
+    }
+
+    private static class DirectoryMapping
+    {
+        final String file;      // replaces the directory of a file
+        final String directory; // replaces a path that is a directory
+        final String rule;
+
+        DirectoryMapping(String file, String directory, String rule) {
+            this.file = file;
+            this.directory = directory;
+            this.rule = rule;
         }
-        return value;
     }
 }
@@ -0,0 +1,183 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.util.*;
+
+/**
+ * An Aho-Corasick automaton over the literal prefixes of a set of patterns.
+ * Dots and slashes are equivalent, so the same automaton finds class names,
+ * internal names and resource paths. Lookups do not allocate.
+ */
+class PrefixMatcher
+{
+    private final int[] alphabet = new int[128];
+    private final char[] wideChars;   // sorted non-ASCII characters of the prefixes
+    private final int[] wideSymbols;
+    private final int symbols;
+    private final int[] delta; // state * symbols + symbol -> state
+    private final int[] depth;
+    private final boolean[] terminal; // a prefix ends here
+    private final boolean[] match;    // a prefix ends here or at a suffix of this state
+
+    /**
+     * Returns a matcher for the package part of each pattern before its first
+     * wildcard. Any string that a pattern can match, as a class name or as
+     * the directory of a resource (see {@link PackageRemapper#mapPath}),
+     * contains this prefix.
+     */
+    public static PrefixMatcher forPatterns(List<? extends PatternElement> patterns) {
+        List<String> prefixes = new ArrayList<String>();
+        for (PatternElement pattern : patterns) {
+            String expr = pattern.getPattern();
+            int star = expr.indexOf('*');
+            if (star >= 0)
+                expr = expr.substring(0, star);
+            prefixes.add(expr.substring(0, expr.lastIndexOf('.') + 1));
+        }
+        return new PrefixMatcher(prefixes);
+    }
+
+    public PrefixMatcher(Collection<String> prefixes) {
+        Arrays.fill(alphabet, -1);
+        int n = 0;
+        int size = 1;
+        SortedSet<Character> wide = new TreeSet<Character>();
+        for (String prefix : prefixes) {
+            size += prefix.length();
+            for (int i = 0; i < prefix.length(); i++) {
+                char c = normalize(prefix.charAt(i));
+                if (c >= 128) {
+                    wide.add(c);
+                } else if (alphabet[c] < 0) {
+                    alphabet[c] = n++;
+                }
+            }
+        }
+        wideChars = new char[wide.size()];
+        wideSymbols = new int[wide.size()];
+        int w = 0;
+        for (char c : wide) {
+            wideChars[w] = c;
+            wideSymbols[w++] = n++;
+        }
+        symbols = Math.max(n, 1);
+
+        // build the trie
+        int[] goTo = new int[size * symbols];
+        Arrays.fill(goTo, -1);
+        int[] depth = new int[size];
+        boolean[] terminal = new boolean[size];
+        int states = 1;
+        for (String prefix : prefixes) {
+            int state = 0;
+            for (int i = 0; i < prefix.length(); i++) {
+                int index = state * symbols + symbol(normalize(prefix.charAt(i)));
+                if (goTo[index] < 0) {
+                    depth[states] = depth[state] + 1;
+                    goTo[index] = states++;
+                }
+                state = goTo[index];
+            }
+            terminal[state] = true;
+        }
+
+        // breadth-first, add failure transitions so that every state has a move for every symbol
+        boolean[] match = new boolean[states];
+        int[] fail = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        match[0] = terminal[0];
+        for (int a = 0; a < symbols; a++) {
+            int next = goTo[a];
+            if (next < 0) {
+                goTo[a] = 0;
+            } else {
+                fail[next] = 0;
+                queue[tail++] = next;
+            }
+        }
+        while (head < tail) {
+            int state = queue[head++];
+            match[state] = terminal[state] || match[fail[state]];
+            for (int a = 0; a < symbols; a++) {
+                int index = state * symbols + a;
+                int next = goTo[index];
+                if (next < 0) {
+                    goTo[index] = goTo[fail[state] * symbols + a];
+                } else {
+                    fail[next] = goTo[fail[state] * symbols + a];
+                    queue[tail++] = next;
+                }
+            }
+        }
+        this.delta = goTo;
+        this.depth = depth;
+        this.terminal = terminal;
+        this.match = match;
+    }
+
+    /** Returns <code>true</code> if a pattern has no literal prefix, so that any string may match. */
+    public boolean matchesAll() {
+        return terminal[0];
+    }
+
+    /** Returns <code>true</code> if any prefix occurs in <code>s</code>. */
+    public boolean find(CharSequence s) {
+        if (terminal[0])
+            return true;
+        int state = 0;
+        for (int i = 0, len = s.length(); i < len; i++) {
+            int a = symbol(normalize(s.charAt(i)));
+            state = a < 0 ? 0 : delta[state * symbols + a];
+            if (match[state])
+                return true;
+        }
+        return false;
+    }
+
+    /** Returns <code>true</code> if a prefix occurs at <code>start</code> in <code>s</code>. */
+    public boolean startsWith(CharSequence s, int start) {
+        if (terminal[0])
+            return true;
+        int state = 0;
+        for (int i = start, len = s.length(); i < len; i++) {
+            int a = symbol(normalize(s.charAt(i)));
+            if (a < 0)
+                return false;
+            int next = delta[state * symbols + a];
+            // a transition that does not go one level deeper leaves the trie
+            if (depth[next] != depth[state] + 1)
+                return false;
+            if (terminal[next])
+                return true;
+            state = next;
+        }
+        return false;
+    }
+
+    private int symbol(char c) {
+        if (c < 128)
+            return alphabet[c];
+        int i = Arrays.binarySearch(wideChars, c);
+        return i < 0 ? -1 : wideSymbols[i];
+    }
+
+    private static char normalize(char c) {
+        return c == '.' ? '/' : c;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.*;
+import java.io.*;
+import java.util.*;
+
+/**
+ * Applies compiled rules to archives in memory, for programs that embed
+ * jarjar. Nothing is written to disk: the entries come from an iterable, a
+ * zip stream or a byte array, and the processed entries go to an
+ * {@link EntrySink}, in the order of the input.
+ * <p>
+ * Each call processes one archive with its own state, as the
+ * <code>process</code> command does: keep rules see only that archive,
+ * duplicate entries are an error, and resources such as service files are
+ * merged and written last. Calls may run at the same time on the same
+ * instance, and instances may share their {@link CompiledRules}, so that the
+ * rules are parsed and names matched against them once.
+ */
+public class Repackager
+{
+    private final CompiledRules rules;
+    private boolean verbose;
+    private boolean skipManifest;
+    private List<String> rewrittenResources;
+
+    public Repackager(CompiledRules rules) {
+        this.rules = rules;
+    }
+
+    /** Logs renamed and removed entries to standard error. */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /** Drops the manifest from the output. */
+    public void setSkipManifest(boolean skipManifest) {
+        this.skipManifest = skipManifest;
+    }
+
+    /**
+     * Sets the resources whose content is rewritten and whose duplicates are
+     * merged; see {@link ResourceContentProcessor#DEFAULT_RESOURCES}.
+     */
+    public void setRewrittenResources(List<String> patterns) {
+        this.rewrittenResources = patterns;
+    }
+
+    public void run(Iterable<EntryStruct> entries, EntrySink sink) throws IOException {
+        MainProcessor proc = createProcessor();
+        try {
+            StandaloneJarProcessor.run(entries, sink, proc, false);
+        } finally {
+            proc.close();
+        }
+    }
+
+    /** Processes the zip file read from <code>in</code>, and closes it. */
+    public void run(InputStream in, EntrySink sink) throws IOException {
+        MainProcessor proc = createProcessor();
+        try {
+            StandaloneJarProcessor.run(in, sink, proc, false);
+        } finally {
+            proc.close();
+        }
+    }
+
+    /** Processes the zip file <code>archive</code>. */
+    public void run(byte[] archive, EntrySink sink) throws IOException {
+        run(new ByteArrayInputStream(archive), sink);
+    }
+
+    private MainProcessor createProcessor() {
+        MainProcessor proc = new MainProcessor(rules, null, verbose, skipManifest, null);
+        if (rewrittenResources != null)
+            proc.setRewrittenResources(rewrittenResources);
+        return proc;
+    }
+}
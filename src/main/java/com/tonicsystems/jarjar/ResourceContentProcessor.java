@@ -0,0 +1,237 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.*;
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Renames the class names and resource paths listed inside text resources
+ * such as <code>META-INF/services</code> files, and the service files
+ * themselves.
+ * <p>
+ * The content is rewritten as a stream of tokens, each a run of characters
+ * that can make up a class name or a path. Only tokens that start with the
+ * literal prefix of a rule, as found by a {@link PrefixMatcher}, are looked
+ * up; everything else is copied as is. Tokens are buffered up to a limit, so
+ * memory use does not depend on the size of the resource.
+ */
+class ResourceContentProcessor implements JarProcessor
+{
+    public static final List<String> DEFAULT_RESOURCES = Collections.unmodifiableList(Arrays.asList(
+        "META-INF/services/*", "META-INF/spring.handlers", "META-INF/spring.schemas"));
+
+    private static final String SERVICES = "META-INF/services/";
+    private static final int MAX_TOKEN = 4096;
+
+    private final PackageRemapper pr;
+    private final PrefixMatcher matcher;
+    private Pattern resources;
+
+    private byte[] token = new byte[256];
+    private int tokenLength;
+    private final ByteChars chars = new ByteChars();
+
+    public ResourceContentProcessor(PackageRemapper pr, PrefixMatcher matcher) {
+        this.pr = pr;
+        this.matcher = matcher;
+        setResources(DEFAULT_RESOURCES);
+    }
+
+    /**
+     * @param patterns paths of the resources to rewrite, where <code>*</code>
+     *        matches within a directory and <code>**</code> across directories
+     */
+    public void setResources(List<String> patterns) {
+        StringBuilder sb = new StringBuilder();
+        for (String pattern : patterns) {
+            if (sb.length() > 0)
+                sb.append('|');
+            String[] parts = pattern.trim().split("\\*\\*", -1);
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0)
+                    sb.append(".*");
+                String[] segments = parts[i].split("\\*", -1);
+                for (int j = 0; j < segments.length; j++) {
+                    if (j > 0)
+                        sb.append("[^/]*");
+                    sb.append(Pattern.quote(segments[j]));
+                }
+            }
+        }
+        resources = sb.length() == 0 ? null : Pattern.compile(sb.toString());
+    }
+
+    /** Returns <code>true</code> if the content of the resource is rewritten. */
+    public boolean isRewritten(String name) {
+        return resources != null && resources.matcher(name).matches();
+    }
+
+    public boolean process(EntryStruct struct) throws IOException {
+        if (!isRewritten(struct.name))
+            return true;
+        if (struct.name.startsWith(SERVICES) && struct.name.length() > SERVICES.length()) {
+            String service = struct.name.substring(SERVICES.length());
+            String mapped = pr.map(service.replace('.', '/'));
+            if (mapped != null)
+                struct.name = SERVICES + mapped.replace('/', '.');
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(struct.data.length + 64);
+        rewrite(new ByteArrayInputStream(struct.data), out);
+        struct.data = out.toByteArray();
+        return true;
+    }
+
+    /** Copies <code>in</code> to <code>out</code>, renaming the names it contains. */
+    public void rewrite(InputStream in, OutputStream out) throws IOException {
+        OutputStream o = new BufferedOutputStream(out);
+        byte[] buf = new byte[0x2000];
+        boolean overflow = false;
+        tokenLength = 0;
+        for (int n; (n = in.read(buf)) >= 0;) {
+            for (int i = 0; i < n; i++) {
+                byte b = buf[i];
+                if (!isNameByte(b)) {
+                    flushToken(o);
+                    overflow = false;
+                    o.write(b);
+                } else if (overflow) {
+                    o.write(b);
+                } else {
+                    if (tokenLength == token.length)
+                        token = grow(token);
+                    token[tokenLength++] = b;
+                    if (tokenLength > MAX_TOKEN) {
+                        // too long to be a name
+                        o.write(token, 0, tokenLength);
+                        tokenLength = 0;
+                        overflow = true;
+                    }
+                }
+            }
+        }
+        flushToken(o);
+        o.flush();
+    }
+
+    private void flushToken(OutputStream out) throws IOException {
+        int len = tokenLength;
+        if (len == 0)
+            return;
+        tokenLength = 0;
+        int start = token[0] == '/' ? 1 : 0;
+        // trailing dots end a sentence rather than a name
+        int end = len;
+        while (end > start && token[end - 1] == '.')
+            end--;
+        boolean ascii = true;
+        for (int i = 0; i < end && ascii; i++)
+            ascii = token[i] >= 0;
+        String name = null;
+        CharSequence cs;
+        if (ascii) {
+            chars.set(token, end);
+            cs = chars;
+        } else {
+            cs = name = new String(token, 0, end, "UTF-8");
+        }
+        if (end == start || !matcher.startsWith(cs, start)) {
+            out.write(token, 0, len);
+            return;
+        }
+        if (name == null)
+            name = chars.toString();
+        String mapped;
+        if (name.indexOf('/') >= 0) {
+            mapped = pr.mapPath(name);
+        } else {
+            mapped = pr.map(name.replace('.', '/'));
+            mapped = mapped == null ? name : mapped.replace('/', '.');
+        }
+        out.write(mapped.getBytes("UTF-8"));
+        out.write(token, end, len - end);
+    }
+
+    /**
+     * Merges duplicate resources line by line: the lines of
+     * <code>second</code> that are not in <code>first</code> are appended.
+     */
+    public byte[] merge(byte[] first, byte[] second) throws IOException {
+        Set<String> lines = new HashSet<String>();
+        BufferedReader r = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(first), "UTF-8"));
+        for (String line; (line = r.readLine()) != null;)
+            lines.add(line.trim());
+        ByteArrayOutputStream out = new ByteArrayOutputStream(first.length + second.length + 1);
+        out.write(first);
+        if (first.length > 0 && first[first.length - 1] != '\n')
+            out.write('\n');
+        Writer w = new OutputStreamWriter(out, "UTF-8");
+        r = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(second), "UTF-8"));
+        for (String line; (line = r.readLine()) != null;) {
+            if (lines.add(line.trim()))
+                w.write(line + "\n");
+        }
+        w.flush();
+        return out.toByteArray();
+    }
+
+    private static boolean isNameByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+            || b == '_' || b == '$' || b == '.' || b == '/' || b == '-' || b < 0;
+    }
+
+    private static byte[] grow(byte[] b) {
+        byte[] copy = new byte[b.length * 2];
+        System.arraycopy(b, 0, copy, 0, b.length);
+        return copy;
+    }
+
+    // views ASCII bytes as characters without decoding them
+    private static class ByteChars implements CharSequence
+    {
+        private byte[] b;
+        private int length;
+
+        void set(byte[] b, int length) {
+            this.b = b;
+            this.length = length;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return (char)(b[index] & 0xFF);
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end)
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+            char[] c = new char[end - start];
+            for (int i = start; i < end; i++)
+                c[i - start] = charAt(i);
+            return new String(c);
+        }
+
+        public String toString() {
+            return subSequence(0, length).toString();
+        }
+    }
+}
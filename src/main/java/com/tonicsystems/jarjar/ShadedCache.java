@@ -0,0 +1,139 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.CompressionPolicy;
+import com.tonicsystems.jarjar.util.JarProcessor;
+import com.tonicsystems.jarjar.util.StandaloneJarProcessor;
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Dependencies shaded with the same rules, laid out like a repository with a
+ * key of the rules in the file names, and the splicing of them with the rest
+ * of the output. Used by {@link JarJarMojo}.
+ */
+class ShadedCache
+{
+    // bumped whenever the same rules shade a jar differently, so that older entries are not used
+    static final int FORMAT = 1;
+
+    private final File directory;
+    private final String key;
+
+    public ShadedCache(File directory, String key) {
+        this.directory = directory;
+        this.key = key;
+    }
+
+    /**
+     * Returns the key of the jars shaded with <code>rules</code>, which also
+     * depends on the other options that change the output and on the version
+     * of jarjar.
+     */
+    public static String getKey(List<? extends PatternElement> rules, boolean skipManifest,
+                                List<String> rewriteResources, String version) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder sb = new StringBuilder(CompiledRules.format(rules));
+        sb.append("skipManifest ").append(skipManifest).append('\n');
+        sb.append("rewriteResources ").append(rewriteResources).append('\n');
+        sb.append("version ").append(version).append('\n');
+        sb.append("format ").append(FORMAT).append('\n');
+        try {
+            digest.update(sb.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder key = new StringBuilder();
+        byte[] hash = digest.digest();
+        for (int i = 0; i < 8; i++)
+            key.append(Integer.toHexString((hash[i] & 0xff) | 0x100).substring(1));
+        return key.toString();
+    }
+
+    /** Returns the file of the shaded dependency, whether it is there yet or not. */
+    public File getFile(String groupId, String artifactId, String version, String classifier) {
+        String name = artifactId + "-" + version + (classifier != null ? "-" + classifier : "");
+        return new File(directory, groupId.replace('.', '/') + "/" + artifactId + "/" + version + "/"
+                        + name + "-" + key + ".jar");
+    }
+
+    /**
+     * Shades <code>jar</code> into <code>file</code>, which is only ever seen
+     * complete: another execution may shade the same dependency at the same
+     * time, with the same result.
+     */
+    public void put(File jar, File file, JarProcessor proc, CompressionPolicy policy) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            StandaloneJarProcessor.run(jar, tmp, proc, true, policy);
+            if (!tmp.renameTo(file) && !file.isFile())
+                throw new IOException("Unable to write: " + file);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Writes <code>hull</code>, then the entries of <code>shaded</code> that
+     * are in none of the previous jars, to <code>to</code>. Resources that
+     * <code>proc</code> merges are merged again. The manifests and signature
+     * files of the shaded dependencies are left out, unless the hull has the
+     * same, as they are from the uber-zip.
+     */
+    public static void splice(File hull, List<File> shaded, File to, JarProcessor proc, CompressionPolicy policy)
+        throws IOException {
+        List<File> parts = new ArrayList<File>();
+        parts.add(hull);
+        parts.addAll(shaded);
+        StandaloneJarProcessor.stitch(parts, to, proc, true, getMetaInfExcludes(shaded, hull), policy);
+    }
+
+    private static Set<String> getMetaInfExcludes(List<File> shaded, File hull) throws IOException {
+        Set<String> names = new HashSet<String>();
+        for (File file : shaded) {
+            ZipFile zip = new ZipFile(file);
+            try {
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                    String name = e.nextElement().getName();
+                    if (name.equals("META-INF/MANIFEST.MF") || name.matches("META-INF/[^/]*\\.(SF|DSA|RSA)"))
+                        names.add(name);
+                }
+            } finally {
+                zip.close();
+            }
+        }
+        ZipFile zip = new ZipFile(hull);
+        try {
+            for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();)
+                names.remove(e.nextElement().getName());
+        } finally {
+            zip.close();
+        }
+        return names;
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipFile;
+
+/**
+ * Processes a large archive in several worker JVMs, so that no single heap
+ * holds all of it.
+ * <p>
+ * The entries are split into ranges of equal size, in the order of the
+ * central directory. Each worker runs the rules over its range with a
+ * {@link MainProcessor} and writes the processed entries, and the keep roots,
+ * dependencies and renames it found, to a temporary directory. The
+ * dependencies of all workers are then combined, so that keep rules see the
+ * whole archive, and the outputs are joined with
+ * {@link StandaloneJarProcessor#stitch} without inflating them again.
+ * <p>
+ * Workers use the class path of this JVM and the jarjar properties of the
+ * {@link Main} that started them. Other JVM options, such as the heap size,
+ * are given by the <code>shardJvmArgs</code> property.
+ */
+class ShardedProcessor
+{
+    // passed on to the workers
+    private static final String[] PROPERTIES = {
+        "verbose", "skipManifest", "rewriteResources", "mappingIn",
+        "compressionLevel", "storeIntermediates", "storedExtensions", "jarjar.jfr"
+    };
+
+    private final Main main;
+    private final File rulesFile;
+    private final int shards;
+
+    /**
+     * @param main the settings of the workers, and creates the processor
+     *        that joins their outputs
+     */
+    public ShardedProcessor(Main main, File rulesFile, int shards) {
+        this.main = main;
+        this.rulesFile = rulesFile;
+        this.shards = shards;
+    }
+
+    public void run(File inJar, File outJar, CompressionPolicy policy) throws IOException {
+        ZipFile zip = new ZipFile(inJar);
+        int count = zip.size();
+        zip.close();
+        int n = Math.max(1, Math.min(shards, count));
+        String mappingOut = main.getProperty("mappingOut");
+
+        File dir = File.createTempFile("jarjar", ".shards");
+        dir.delete();
+        if (!dir.mkdir())
+            throw new IOException("Cannot create " + dir);
+        try {
+            List<Process> workers = new ArrayList<Process>();
+            try {
+                for (int i = 0; i < n; i++) {
+                    List<String> command = new ArrayList<String>();
+                    command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+                    String jvmArgs = main.getProperty("shardJvmArgs");
+                    if (jvmArgs != null && jvmArgs.trim().length() > 0)
+                        command.addAll(Arrays.asList(jvmArgs.trim().split("\\s+")));
+                    for (String property : PROPERTIES) {
+                        String value = main.getProperty(property);
+                        if (value != null)
+                            command.add("-D" + property + "=" + value);
+                    }
+                    command.add("-cp");
+                    command.add(System.getProperty("java.class.path"));
+                    command.add(ShardedProcessor.class.getName());
+                    command.add(rulesFile.getAbsolutePath());
+                    command.add(inJar.getAbsolutePath());
+                    command.add(String.valueOf((long)count * i / n));
+                    command.add(String.valueOf((long)count * (i + 1) / n));
+                    command.add(new File(dir, i + ".jar").getPath());
+                    command.add(new File(dir, i + ".state").getPath());
+                    if (mappingOut != null)
+                        command.add(new File(dir, i + ".mapping").getPath());
+                    Process worker = new ProcessBuilder(command).redirectErrorStream(true).start();
+                    worker.getOutputStream().close();
+                    pump(worker.getInputStream(), main.getErrorStream(), "jarjar-shard-" + i);
+                    workers.add(worker);
+                }
+                for (int i = 0; i < n; i++) {
+                    int status = workers.get(i).waitFor();
+                    if (status != 0)
+                        throw new IOException("Shard " + i + " failed with exit code " + status);
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } finally {
+                for (Process worker : workers)
+                    worker.destroy();
+            }
+
+            MainProcessor proc = main.createProcessor(rulesFile, null);
+            try {
+                List<File> parts = new ArrayList<File>();
+                for (int i = 0; i < n; i++) {
+                    parts.add(new File(dir, i + ".jar"));
+                    proc.readState(new File(dir, i + ".state"));
+                }
+                StandaloneJarProcessor.stitch(parts, outJar, proc, false, proc.getExcludedEntries(), policy);
+            } finally {
+                proc.close();
+            }
+            if (mappingOut != null) {
+                // the same rename can be found by several workers
+                Mapping mapping = new Mapping();
+                for (int i = 0; i < n; i++)
+                    mapping.putAll(Mapping.read(new File(dir, i + ".mapping")));
+                mapping.write(new File(mappingOut));
+            }
+        } finally {
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files)
+                    file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    // copies the output of a worker to err
+    private static void pump(final InputStream in, final PrintStream err, String name) {
+        Thread thread = new Thread(name) {
+            public void run() {
+                try {
+                    byte[] buf = new byte[0x2000];
+                    int n;
+                    while ((n = in.read(buf)) >= 0)
+                        err.write(buf, 0, n);
+                    err.flush();
+                } catch (IOException e) {
+                    // the worker is gone
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs a worker. The arguments are the rules file, the input archive, the
+     * first and end index of the range of entries, the output archive, the
+     * file to write the state of the processor to and optionally the mapping
+     * file.
+     */
+    public static void main(String[] args) throws IOException {
+        Main main = new Main();
+        MainProcessor proc = main.createProcessor(new File(args[0]), args.length > 6 ? new File(args[6]) : null);
+        try {
+            StandaloneJarProcessor.run(new File(args[1]), new File(args[4]), proc, false, main.getCompressionPolicy(),
+                                       Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+            proc.writeState(new File(args[5]));
+        } finally {
+            proc.close();
+        }
+    }
+}
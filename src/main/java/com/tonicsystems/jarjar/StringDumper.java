@@ -18,47 +18,127 @@ package com.tonicsystems.jarjar;
 
 import com.tonicsystems.jarjar.util.*;
 import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Pattern;
 import org.objectweb.asm.*;
 
 class StringDumper
 {
+    private Pattern pattern;
+    private boolean lineNumbers;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
     public StringDumper() {
     }
 
+    /** Only dump the strings in which <code>pattern</code> can be found. */
+    public void setPattern(Pattern pattern) {
+        this.pattern = pattern;
+    }
+
+    /**
+     * Fully parse each class so that line numbers can be printed. By default
+     * only the constant pool and annotations are read.
+     */
+    public void setLineNumbers(boolean lineNumbers) {
+        this.lineNumbers = lineNumbers;
+    }
+
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     public void run(String classPath, PrintWriter pw) throws IOException {
-        StringReader stringReader = new DumpStringReader(pw);
+        // classes are read in order on this thread, parsed by the pool and
+        // printed in the order they were read
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final ThreadLocal<Dumper> dumpers = new ThreadLocal<Dumper>() {
+            protected Dumper initialValue() {
+                return lineNumbers ? new FullDumper(pattern) : new ConstantDumper(pattern);
+            }
+        };
+        LinkedList<Future<String>> pending = new LinkedList<Future<String>>();
+        byte[] buf = new byte[0x2000];
         ClassPathIterator cp = new ClassPathIterator(classPath);
         try {
             while (cp.hasNext()) {
-                ClassPathEntry entry = cp.next();
+                final ClassPathEntry entry = cp.next();
                 InputStream in = entry.openStream();
+                final byte[] bytes;
                 try {
-                    new ClassReader(in).accept(stringReader, 0);
-                } catch (Exception e) {
-                    System.err.println("Error reading " + entry.getName() + ": " + e.getMessage());
+                    bytes = readFully(in, buf);
                 } finally {
                     in.close();
                 }
-                pw.flush();
+                pending.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        try {
+                            return dumpers.get().dump(bytes);
+                        } catch (Exception e) {
+                            System.err.println("Error reading " + entry.getName() + ": " + e.getMessage());
+                            return "";
+                        }
+                    }
+                }));
+                if (pending.size() >= threads * 16)
+                    pw.print(get(pending.removeFirst()));
             }
+            while (!pending.isEmpty())
+                pw.print(get(pending.removeFirst()));
+            pw.flush();
         } catch (RuntimeIOException e) {
             throw (IOException)e.getCause();
         } finally {
+          executor.shutdownNow();
           cp.close();
         }
     }
 
-    private static class DumpStringReader extends StringReader
+    private static String get(Future<String> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error)
+                throw (Error)cause;
+            throw (RuntimeException)cause;
+        }
+    }
+
+    private static byte[] readFully(InputStream in, byte[] buf) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int amt;
+        while ((amt = in.read(buf)) >= 0)
+            out.write(buf, 0, amt);
+        return out.toByteArray();
+    }
+
+    private static abstract class Dumper
     {
-        private final PrintWriter pw;
+        private final Pattern pattern;
+        private final StringWriter sw = new StringWriter();
+        protected final PrintWriter pw = new PrintWriter(sw);
         private String className;
 
-        public DumpStringReader(PrintWriter pw) {
-            this.pw = pw;
+        protected Dumper(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        public String dump(byte[] bytes) {
+            className = null;
+            sw.getBuffer().setLength(0);
+            read(bytes);
+            pw.flush();
+            return sw.toString();
         }
 
-        public void visitString(String className, String value, int line) {
-            if (value.length() > 0) {
+        abstract protected void read(byte[] bytes);
+
+        protected void print(String className, String value, int line) {
+            if (value.length() > 0 && (pattern == null || pattern.matcher(value).find())) {
                 if (!className.equals(this.className)) {
                     this.className = className;
                     pw.println(className.replace('/', '.'));
@@ -70,7 +150,41 @@ class StringDumper
                 pw.println();
             }
         }
-    };
+    }
+
+    private static class ConstantDumper extends Dumper
+    {
+        private final ConstantStringReader reader = new ConstantStringReader();
+        private final List<String> strings = new ArrayList<String>();
+
+        public ConstantDumper(Pattern pattern) {
+            super(pattern);
+        }
+
+        protected void read(byte[] bytes) {
+            strings.clear();
+            String className = reader.read(bytes, strings);
+            for (String value : strings)
+                print(className, value, -1);
+        }
+    }
+
+    private static class FullDumper extends Dumper
+    {
+        private final StringReader stringReader = new StringReader() {
+            public void visitString(String className, String value, int line) {
+                print(className, value, line);
+            }
+        };
+
+        public FullDumper(Pattern pattern) {
+            super(pattern);
+        }
+
+        protected void read(byte[] bytes) {
+            new ClassReader(bytes).accept(stringReader, 0);
+        }
+    }
 
     private static String escapeStringLiteral(String value) {
         StringBuilder sb = new StringBuilder();
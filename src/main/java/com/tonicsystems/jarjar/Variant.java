@@ -0,0 +1,57 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Another set of rules for {@link JarJarMojo}, applied to the same input in
+ * the same pass as the main rules and written to an output of its own.
+ */
+public class Variant
+{
+    private List<PatternElement> rules;
+    private String output;
+    private File mappingOutput;
+
+    public void setRules(List<PatternElement> rules) {
+        this.rules = rules;
+    }
+
+    public List<PatternElement> getRules() {
+        return rules;
+    }
+
+    /** Sets the jar or directory the variant is written to. */
+    public void setOutput(String output) {
+        this.output = output;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    /** Sets the file to write the renames of the variant to, as with the main rules. */
+    public void setMappingOutput(File mappingOutput) {
+        this.mappingOutput = mappingOutput;
+    }
+
+    public File getMappingOutput() {
+        return mappingOutput;
+    }
+}
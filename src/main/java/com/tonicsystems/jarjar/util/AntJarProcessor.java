@@ -18,21 +18,47 @@ package com.tonicsystems.jarjar.util;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.taskdefs.Jar;
+import org.apache.tools.ant.types.Resource;
 import org.apache.tools.ant.types.ZipFileSet;
 import org.apache.tools.zip.JarMarker;
 import org.apache.tools.zip.ZipExtraField;
 import org.apache.tools.zip.ZipOutputStream;
 
+/**
+ * A jar task that runs the entries through a {@link JarProcessor} before
+ * they are written.
+ * <p>
+ * With the <code>threads</code> attribute, and a processor that is a
+ * {@link JarProcessorFactory}, entries are processed on several threads by
+ * workers of the processor while the task collects the next ones. They are
+ * still written in the order the task added them. Entries that a
+ * {@link StrippingJarProcessor} may exclude are held until all entries were
+ * processed, so that the excluded ones are never written. Directories are
+ * only written as parents of the entries that are, so none are left empty.
+ */
 abstract public class AntJarProcessor extends Jar
 {
-    private EntryStruct struct = new EntryStruct();
+    // entries in flight per thread
+    private static final int WINDOW = 16;
+
     private JarProcessor proc;
+    private StrippingJarProcessor stripper;
+    private Workers<?> workers;
+    private final LinkedList<Pending> pending = new LinkedList<Pending>();
+    private final List<Pending> held = new ArrayList<Pending>();
     private byte[] buf = new byte[0x2000];
+    private int threads = 1;
 
     private Set<String> dirs = new HashSet<String>();
     private boolean filesOnly;
+    private boolean writingManifest;
+    private String storedExtensions = CompressionPolicy.DEFAULT_STORED_EXTENSIONS;
+    private CompressionPolicy policy;
 
     protected boolean verbose;
 
@@ -44,11 +70,48 @@ abstract public class AntJarProcessor extends Jar
         this.verbose = verbose;
     }
 
+    /** Sets the number of threads that process entries. */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the comma-separated extensions of files that are stored instead of
+     * deflated because they are already compressed.
+     */
+    public void setStoredExtensions(String storedExtensions) {
+        this.storedExtensions = storedExtensions;
+    }
+
+    /** Returns the compression of the task as configured by its attributes. */
+    protected CompressionPolicy getCompressionPolicy() {
+        CompressionPolicy policy = new CompressionPolicy();
+        policy.setLevel(isCompress() ? getLevel() : Deflater.NO_COMPRESSION);
+        policy.setStoredExtensions(storedExtensions);
+        return policy;
+    }
+
     public abstract void execute() throws BuildException;
 
     public void execute(JarProcessor proc) throws BuildException {
         this.proc = proc;
-        super.execute();
+        this.policy = getCompressionPolicy();
+        stripper = proc instanceof StrippingJarProcessor ? (StrippingJarProcessor)proc : null;
+        if (threads > 1 && proc instanceof JarProcessorFactory)
+            workers = createWorkers((JarProcessorFactory<?>)proc, threads);
+        try {
+            super.execute();
+        } finally {
+            if (workers != null)
+                workers.shutdown();
+            workers = null;
+            pending.clear();
+            held.clear();
+        }
+    }
+
+    private static <T extends JarProcessor> Workers<T> createWorkers(JarProcessorFactory<T> factory, int threads) {
+        return new Workers<T>(factory, threads);
     }
 
     public void setFilesonly(boolean f) {
@@ -60,21 +123,95 @@ abstract public class AntJarProcessor extends Jar
         throws IOException {
     }
 
+    // directories of the filesets, which may end up empty
+    protected void zipDir(Resource dir, ZipOutputStream zOut, String vPath, int mode, ZipExtraField[] extra)
+        throws IOException {
+        if (writingManifest)
+            super.zipDir(dir, zOut, vPath, mode, extra);
+    }
+
+    protected void initZipOutputStream(ZipOutputStream zOut) throws IOException, BuildException {
+        writingManifest = true;
+        try {
+            super.initZipOutputStream(zOut);
+        } finally {
+            writingManifest = false;
+        }
+    }
+
     protected void zipFile(InputStream is, ZipOutputStream zOut, String vPath,
                                      long lastModified, File fromArchive, int mode) throws IOException {
         ByteArrayOutputStream baos = new ByteArrayOutputStream();
         IoUtil.pipe(is, baos, buf);
+        final EntryStruct struct = new EntryStruct();
         struct.data = baos.toByteArray();
         struct.name = vPath;
         struct.time = lastModified;
-        if (proc.process(struct)) {
-            if (mode == 0)
-                mode = ZipFileSet.DEFAULT_FILE_MODE;
-            if (!filesOnly) {
-              addParentDirs(struct.name, zOut);
+        Pending entry = new Pending(fromArchive, mode);
+        if (workers == null) {
+            entry.kept = proc.process(struct) ? struct : null;
+            accept(entry, zOut);
+        } else {
+            final Workers<?> w = workers;
+            entry.result = w.submit(new Callable<EntryStruct>() {
+                public EntryStruct call() throws IOException {
+                    return w.get().process(struct) ? struct : null;
+                }
+            });
+            pending.add(entry);
+            while (!pending.isEmpty() && (pending.size() >= WINDOW * threads || pending.getFirst().result.isDone()))
+                accept(pending.removeFirst(), zOut);
+        }
+    }
+
+    protected void finalizeZipOutputStream(ZipOutputStream zOut) throws IOException, BuildException {
+        while (!pending.isEmpty())
+            accept(pending.removeFirst(), zOut);
+        if (workers != null)
+            workers.merge();
+        if (stripper != null) {
+            Set<String> excludes = stripper.getExcludedEntries();
+            for (Pending entry : held) {
+                if (!excludes.contains(entry.kept.name))
+                    write(entry, zOut);
+            }
+            held.clear();
+        }
+        super.finalizeZipOutputStream(zOut);
+    }
+
+    // writes a processed entry, or holds it if it may be excluded
+    private void accept(Pending entry, ZipOutputStream zOut) throws IOException {
+        if (entry.result != null)
+            entry.kept = Workers.get(entry.result);
+        if (entry.kept == null)
+            return;
+        if (stripper != null && stripper.isStrippable(entry.kept.name)) {
+            held.add(entry);
+        } else {
+            write(entry, zOut);
+        }
+    }
+
+    private void write(Pending entry, ZipOutputStream zOut) throws IOException {
+        EntryStruct struct = entry.kept;
+        int mode = entry.mode;
+        if (mode == 0)
+            mode = ZipFileSet.DEFAULT_FILE_MODE;
+        if (!filesOnly) {
+          addParentDirs(struct.name, zOut);
+        }
+        if (isCompress() && policy.getLevel(struct.name) == Deflater.NO_COMPRESSION) {
+            setCompress(false);
+            try {
+                super.zipFile(new ByteArrayInputStream(struct.data),
+                              zOut, struct.name, struct.time, entry.fromArchive, mode);
+            } finally {
+                setCompress(true);
             }
+        } else {
             super.zipFile(new ByteArrayInputStream(struct.data),
-                          zOut, struct.name, struct.time, fromArchive, mode);
+                          zOut, struct.name, struct.time, entry.fromArchive, mode);
         }
     }
 
@@ -84,7 +221,7 @@ abstract public class AntJarProcessor extends Jar
         String dir = file.substring(0, slash);
         if (dirs.add(dir)) {
           addParentDirs(dir, zOut);
-          super.zipDir((File) null, zOut, dir + "/", ZipFileSet.DEFAULT_DIR_MODE, JAR_MARKER);
+          super.zipDir((Resource) null, zOut, dir + "/", ZipFileSet.DEFAULT_DIR_MODE, JAR_MARKER);
         }
       }
     }
@@ -101,7 +238,23 @@ abstract public class AntJarProcessor extends Jar
 
     protected void cleanHelper() {
         verbose = false;
+        threads = 1;
         filesOnly = false;
+        storedExtensions = CompressionPolicy.DEFAULT_STORED_EXTENSIONS;
         dirs.clear();
     }
+
+    // an entry given to the task
+    private static class Pending
+    {
+        final File fromArchive;
+        final int mode;
+        Future<EntryStruct> result; // while processed by a worker
+        EntryStruct kept;           // null if the processor removed it
+
+        Pending(File fromArchive, int mode) {
+            this.fromArchive = fromArchive;
+            this.mode = mode;
+        }
+    }
 }
@@ -17,132 +17,216 @@
 package com.tonicsystems.jarjar.util;
 
 import java.io.*;
-import java.lang.reflect.Array;
-import java.util.*;
+import java.nio.ByteBuffer;
 
+/**
+ * Reads the access flags, name, super class and interfaces of a class file
+ * without parsing anything beyond the header.
+ * <p>
+ * Class files can be read straight from a {@link ByteBuffer} (heap, direct or
+ * memory-mapped) without copying. Names are only decoded when one of the
+ * getters is called, so skipping over classes costs no allocation. The values
+ * returned by the getters are only valid until the next call to
+ * <code>read</code>, and the buffer must not be modified before then.
+ */
 public class ClassHeaderReader
 {
+    private static final int CHUNK = 2048;
+
     private int access;
-    private String thisClass;
-    private String superClass;
+    private int thisClass;
+    private int superClass;
+    private int interfacesCount;
+    private int interfacesIndex;
+
+    private String className;
+    private String superName;
     private String[] interfaces;
 
+    private ByteBuffer buf;
+    private int off;
+    private int[] items = new int[1000];
+    private char[] chars = new char[256];
+
+    // only used when reading from a stream
     private InputStream in;
     private byte[] b = new byte[0x2000];
-    private int[] items = new int[1000];
-    private int bsize = 0;
-    private MyByteArrayInputStream bin = new MyByteArrayInputStream();
-    private DataInputStream data = new DataInputStream(bin);
+    private ByteBuffer bbuf = ByteBuffer.wrap(b);
+    private int bsize;
 
     public int getAccess() {
         return access;
     }
-    
+
     public String getClassName() {
-        return thisClass;
+        if (className == null)
+            className = readClass(thisClass);
+        return className;
     }
 
     public String getSuperName() {
-        return superClass;
+        if (superName == null)
+            superName = readClass(superClass);
+        return superName;
+    }
+
+    public int getInterfaceCount() {
+        return interfacesCount;
     }
 
     public String[] getInterfaces() {
+        if (interfaces == null) {
+            interfaces = new String[interfacesCount];
+            for (int i = 0; i < interfacesCount; i++)
+                interfaces[i] = readClass(readUnsignedShort(interfacesIndex + i * 2));
+        }
         return interfaces;
     }
 
+    /**
+     * Reads the header of the class file starting at the current position of
+     * the buffer. Neither the position nor the limit of the buffer are changed.
+     */
+    public void read(ByteBuffer buf) throws IOException {
+        this.in = null;
+        this.buf = buf;
+        this.off = buf.position();
+        parse();
+    }
+
     public void read(InputStream in) throws IOException {
         try {
             this.in = in;
+            this.buf = bbuf;
+            this.off = 0;
             bsize = 0;
-            access = 0;
-            thisClass = superClass = null;
-            interfaces = null;
-
-            try {
-                buffer(4);
-            } catch (IOException e) {
-                // ignore
-            }
-            if (b[0] != (byte)0xCA || b[1] != (byte)0xFE || b[2] != (byte)0xBA || b[3] != (byte)0xBE)
-                throw new ClassFormatError("Bad magic number");
-
-            buffer(6);
-            readUnsignedShort(4); // minorVersion
-            readUnsignedShort(6); // majorVersion
-            // TODO: check version
-            int constant_pool_count = readUnsignedShort(8);
-            items = (int[])resizeArray(items, constant_pool_count);
-
-            int index = 10;
-            for (int i = 1; i < constant_pool_count; i++) {
-                int size;
-                buffer(index + 3); // TODO: reduce calls to buffer
-                int tag = b[index];
-                items[i] = index + 1;
-                switch (tag) {
-                case 9:  // Fieldref
-                case 10: // Methodref
-                case 11: // InterfaceMethodref
-                case 3:  // Integer
-                case 4:  // Float
-                case 12: // NameAndType
-                    size = 4;
-                    break;
-                case 5:  // Long
-                case 6:  // Double
-                    size = 8;
-                    i++;
-                    break;
-                case 1:  // Utf8
-                    size = 2 + readUnsignedShort(index + 1);
-                    break;
-                case 7:  // Class
-                case 8:  // String
-                    size = 2;
-                    break;
-                default:
-                    throw new IllegalStateException("Unknown constant pool tag " + tag);
-                }
-                index += size + 1;
-            }
-            buffer(index + 8);
-            access = readUnsignedShort(index);
-            thisClass = readClass(index + 2);
-            superClass = readClass(index + 4);
-            int interfaces_count = readUnsignedShort(index + 6);
-        
-            index += 8;
-            buffer(index + interfaces_count * 2);
-            interfaces = new String[interfaces_count];
-            for (int i = 0; i < interfaces_count; i++) {
-                interfaces[i] = readClass(index);
-                index += 2;
-            }
+            parse();
         } finally {
+            this.in = null;
             in.close();
         }
     }
 
-    private String readClass(int index) throws IOException {
-        index = readUnsignedShort(index);
+    private void parse() throws IOException {
+        access = thisClass = superClass = interfacesCount = interfacesIndex = 0;
+        className = superName = null;
+        interfaces = null;
+
+        try {
+            buffer(4);
+        } catch (EOFException e) {
+            throw new ClassFormatError("Bad magic number");
+        }
+        if (readUnsignedShort(0) != 0xCAFE || readUnsignedShort(2) != 0xBABE)
+            throw new ClassFormatError("Bad magic number");
+
+        buffer(10);
+        // TODO: check version
+        int constant_pool_count = readUnsignedShort(8);
+        if (items.length < constant_pool_count)
+            items = new int[Math.max(constant_pool_count, items.length * 2)];
+        int[] items = this.items;
+
+        int index = 10;
+        for (int i = 1; i < constant_pool_count; i++) {
+            int size;
+            buffer(index + 3);
+            int tag = buf.get(off + index);
+            items[i] = index + 1;
+            switch (tag) {
+            case 9:  // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 3:  // Integer
+            case 4:  // Float
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                size = 4;
+                break;
+            case 5:  // Long
+            case 6:  // Double
+                size = 8;
+                i++;
+                break;
+            case 1:  // Utf8
+                size = 2 + readUnsignedShort(index + 1);
+                break;
+            case 15: // MethodHandle
+                size = 3;
+                break;
+            case 7:  // Class
+            case 8:  // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                size = 2;
+                break;
+            default:
+                throw new IllegalStateException("Unknown constant pool tag " + tag);
+            }
+            index += size + 1;
+        }
+        buffer(index + 8);
+        access = readUnsignedShort(index);
+        thisClass = readUnsignedShort(index + 2);
+        superClass = readUnsignedShort(index + 4);
+        interfacesCount = readUnsignedShort(index + 6);
+        interfacesIndex = index + 8;
+        buffer(interfacesIndex + interfacesCount * 2);
+    }
+
+    private String readClass(int index) {
         if (index == 0)
             return null;
-        index = readUnsignedShort(items[index]);
-        bin.readFrom(b, items[index]);
-        return data.readUTF();
+        return readUTF(items[readUnsignedShort(items[index])]);
     }
 
+    // decodes the modified UTF-8 used by class files
+    private String readUTF(int index) {
+        int len = readUnsignedShort(index);
+        if (chars.length < len)
+            chars = new char[Math.max(len, chars.length * 2)];
+        char[] chars = this.chars;
+        ByteBuffer buf = this.buf;
+        int pos = off + index + 2;
+        int end = pos + len;
+        int n = 0;
+        while (pos < end) {
+            int c = buf.get(pos++) & 0xFF;
+            if (c < 0x80) {
+                chars[n++] = (char)c;
+            } else if (c < 0xE0) {
+                chars[n++] = (char)(((c & 0x1F) << 6) | (buf.get(pos++) & 0x3F));
+            } else {
+                chars[n++] = (char)(((c & 0x0F) << 12) | ((buf.get(pos) & 0x3F) << 6) | (buf.get(pos + 1) & 0x3F));
+                pos += 2;
+            }
+        }
+        return new String(chars, 0, n);
+    }
+
+    // independent of the byte order the caller may have set on the buffer
     private int readUnsignedShort(int index) {
-        byte[] b = this.b;
-        return ((b[index] & 0xFF) << 8) | (b[index + 1] & 0xFF);
+        ByteBuffer buf = this.buf;
+        index += off;
+        return ((buf.get(index) & 0xFF) << 8) | (buf.get(index + 1) & 0xFF);
     }
 
-    private static final int CHUNK = 2048;
     private void buffer(int amount) throws IOException {
-        if (amount > b.length)
-            b = (byte[])resizeArray(b, b.length * 2);
+        if (in == null) {
+            if (off + amount > buf.limit())
+                throw new EOFException();
+            return;
+        }
         if (amount > bsize) {
-            int rounded = (int)(CHUNK * Math.ceil((float)amount / CHUNK));
+            int rounded = CHUNK * ((amount + CHUNK - 1) / CHUNK);
+            if (rounded > b.length) {
+                byte[] newB = new byte[Math.max(rounded, b.length * 2)];
+                System.arraycopy(b, 0, newB, 0, bsize);
+                b = newB;
+                buf = bbuf = ByteBuffer.wrap(b);
+            }
             bsize += read(in, b, bsize, rounded - bsize);
             if (amount > bsize)
                 throw new EOFException();
@@ -159,28 +243,4 @@ public class ClassHeaderReader
         }
         return total;
     }
-
-    private static Object resizeArray(Object array, int length)
-    {
-        if (Array.getLength(array) < length) {
-            Object newArray = Array.newInstance(array.getClass().getComponentType(), length);
-            System.arraycopy(array, 0, newArray, 0, Array.getLength(array));
-            return newArray;
-        } else {
-            return array;
-        }
-    }
-
-    private static class MyByteArrayInputStream extends ByteArrayInputStream
-    {
-        public MyByteArrayInputStream() {
-            super(new byte[0]);
-        }
-
-        public void readFrom(byte[] buf, int pos) {
-            this.buf = buf;
-            this.pos = pos;
-            count = buf.length;
-        }
-    }
 }
@@ -21,6 +21,16 @@ import java.util.zip.*;
 import java.io.*;
 import java.util.jar.*;
 
+/**
+ * Iterates over the class files of a classpath.
+ * <p>
+ * Directories are walked lazily and at most one archive is open at a time: an
+ * archive is closed as soon as its last entry has been consumed. As a result
+ * the stream of a {@link ClassPathEntry} must be read before the next call to
+ * {@link #hasNext} or {@link #next}. Use {@link #split} to divide a
+ * classpath between parallel consumers; the number of open archives is then
+ * capped by the number of parts.
+ */
 public class ClassPathIterator implements Iterator<ClassPathEntry>
 {
     private static final FileFilter CLASS_FILTER = new FileFilter() {
@@ -34,17 +44,78 @@ public class ClassPathIterator implements Iterator<ClassPathEntry>
             return hasExtension(file.getName(), ".jar");
         }
     };
-    
+
     private final Iterator<File> files;
     private Iterator<ClassPathEntry> entries = Collections.<ClassPathEntry>emptyList().iterator();
     private ClassPathEntry next;
-    private List<ZipFile> zips = new ArrayList<ZipFile>();
+    private ZipFile zip;
+    private boolean closed;
 
     public ClassPathIterator(String classPath) throws IOException {
         this(new File(System.getProperty("user.dir")), classPath, null);
     }
-    
+
     public ClassPathIterator(File parent, String classPath, String delim) throws IOException {
+        this(parseClassPath(parent, classPath, delim));
+    }
+
+    private ClassPathIterator(List<File> files) {
+        this.files = files.iterator();
+    }
+
+    /**
+     * Divides the classpath into at most <code>parts</code> iterators of
+     * roughly equal size: archives by their length, directories by the length
+     * of their class files. The parts are contiguous, so visiting them in
+     * order visits the classes in classpath order.
+     */
+    public static List<ClassPathIterator> split(File parent, String classPath, String delim, int parts) throws IOException {
+        if (parts < 1)
+            throw new IllegalArgumentException("parts must be positive: " + parts);
+        List<File> fileList = parseClassPath(parent, classPath, delim);
+        long total = 0;
+        for (File file : fileList)
+            total += weight(file);
+        List<ClassPathIterator> result = new ArrayList<ClassPathIterator>(parts);
+        List<File> part = new ArrayList<File>();
+        long size = 0;
+        for (File file : fileList) {
+            part.add(file);
+            size += weight(file);
+            if (size * parts >= total * (result.size() + 1) && result.size() < parts - 1) {
+                result.add(new ClassPathIterator(part));
+                part = new ArrayList<File>();
+            }
+        }
+        if (!part.isEmpty() || result.isEmpty())
+            result.add(new ClassPathIterator(part));
+        return result;
+    }
+
+    // the bytes of a file, or of the class files under a directory, which are
+    // listed but not read
+    private static long weight(File file) {
+        if (!file.isDirectory())
+            return Math.max(1, file.length());
+        long weight = 1;
+        LinkedList<File> pending = new LinkedList<File>();
+        pending.add(file);
+        while (!pending.isEmpty()) {
+            File[] children = pending.removeFirst().listFiles(CLASS_FILTER);
+            if (children == null)
+                continue;
+            for (File child : children) {
+                if (child.isDirectory()) {
+                    pending.add(child);
+                } else {
+                    weight += child.length();
+                }
+            }
+        }
+        return weight;
+    }
+
+    private static List<File> parseClassPath(File parent, String classPath, String delim) {
         if (delim == null) {
             delim = System.getProperty("path.separator");
         }
@@ -61,7 +132,7 @@ public class ClassPathIterator implements Iterator<ClassPathEntry>
             } else if (part.indexOf('*') >= 0) {
                 throw new IllegalArgumentException("Incorrect wildcard usage: " + part);
             }
-                
+
             File file = new File(part);
             if (!file.isAbsolute())
                 file = new File(parent, part);
@@ -71,24 +142,37 @@ public class ClassPathIterator implements Iterator<ClassPathEntry>
             if (wildcard) {
                 if (!file.isDirectory())
                     throw new IllegalArgumentException("File " + file + " + is not a directory");
-                fileList.addAll(findFiles(file, JAR_FILTER, false, new ArrayList<File>()));
+                fileList.addAll(Arrays.asList(file.listFiles(JAR_FILTER)));
             } else {
                 fileList.add(file);
             }
         }
-        this.files = fileList.iterator();
-        advance();
+        return fileList;
     }
 
     public boolean hasNext() {
+        if (next == null && !closed) {
+            try {
+                advance();
+            } catch (IOException e) {
+                throw new RuntimeIOException(e);
+            }
+        }
         return next != null;
     }
 
-    /** Closes all zip files opened by this iterator. */
+    /** Closes the zip file currently opened by this iterator, if any. */
     public void close() throws IOException {
       next = null;
-      for (ZipFile zip : zips) {
-        zip.close();
+      closed = true;
+      closeZip();
+    }
+
+    private void closeZip() throws IOException {
+      if (zip != null) {
+        ZipFile z = zip;
+        zip = null;
+        z.close();
       }
     }
 
@@ -100,28 +184,29 @@ public class ClassPathIterator implements Iterator<ClassPathEntry>
         if (!hasNext())
             throw new NoSuchElementException();
         ClassPathEntry result = next;
-        try {
-            advance();
-        } catch (IOException e) {
-            throw new RuntimeIOException(e);
-        }
+        next = null;
         return result;
     }
 
     private void advance() throws IOException {
-        if (!entries.hasNext()) {
+        for (;;) {
+            while (entries.hasNext()) {
+                ClassPathEntry entry = entries.next();
+                if (isClass(entry.getName())) {
+                    next = entry;
+                    return;
+                }
+            }
+            closeZip();
             if (!files.hasNext()) {
-                next = null;
                 return;
             }
             File file = files.next();
             if (hasExtension(file.getName(), ".jar")) {
-                ZipFile zip = new JarFile(file);
-                zips.add(zip);
+                zip = new JarFile(file);
                 entries = new ZipIterator(zip);
             } else if (hasExtension(file.getName(), ".zip")) {
-                ZipFile zip = new ZipFile(file);
-                zips.add(zip);
+                zip = new ZipFile(file);
                 entries = new ZipIterator(zip);
             } else if (file.isDirectory()) {
                 entries = new FileIterator(file);
@@ -129,15 +214,6 @@ public class ClassPathIterator implements Iterator<ClassPathEntry>
                 throw new IllegalArgumentException("Do not know how to handle " + file);
             }
         }
-
-        boolean foundClass = false;
-        while (!foundClass && entries.hasNext()) {
-          next = entries.next();
-          foundClass = isClass(next.getName());
-        }
-        if (!foundClass) {
-          advance();
-        }
     }
 
     private static class ZipIterator implements Iterator<ClassPathEntry> {
@@ -175,25 +251,40 @@ public class ClassPathIterator implements Iterator<ClassPathEntry>
       }
     }
 
+    // lists one directory at a time instead of the whole tree up front
     private static class FileIterator implements Iterator<ClassPathEntry> {
       private final File dir;
-      private final Iterator<File> entries;
+      private final LinkedList<File> pending = new LinkedList<File>();
+      private File nextFile;
 
       FileIterator(File dir) {
         this.dir = dir;
-        this.entries = findFiles(dir, CLASS_FILTER, true, new ArrayList<File>()).iterator();
+        pending.add(dir);
       }
 
       public boolean hasNext() {
-        return entries.hasNext();
+        while (nextFile == null && !pending.isEmpty()) {
+          File file = pending.removeFirst();
+          if (file.isDirectory()) {
+            File[] children = file.listFiles(CLASS_FILTER);
+            if (children != null)
+              pending.addAll(0, Arrays.asList(children));
+          } else {
+            nextFile = file;
+          }
+        }
+        return nextFile != null;
       }
 
       public void remove() {
         throw new UnsupportedOperationException();
       }
-      
+
       public ClassPathEntry next() {
-        final File file = entries.next();
+        if (!hasNext())
+          throw new NoSuchElementException();
+        final File file = nextFile;
+        nextFile = null;
         return new ClassPathEntry() {
           public String getSource() throws IOException {
             return dir.getCanonicalPath();
@@ -210,17 +301,6 @@ public class ClassPathIterator implements Iterator<ClassPathEntry>
       }
     }
 
-    private static List<File> findFiles(File dir, FileFilter filter, boolean recurse, List<File> collect) {
-        for (File file : dir.listFiles(filter)) {
-            if (recurse && file.isDirectory()) {
-                findFiles(file, filter, recurse, collect);
-            } else {
-                collect.add(file);
-            }
-        }
-        return collect;
-    }
-
     private static boolean isClass(String name) {
         return hasExtension(name, ".class");
     }
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how the entries of the archives written by jarjar are compressed.
+ * <p>
+ * Intermediate archives, which are read again right away, are stored
+ * uncompressed unless {@link #setStoreIntermediates} is turned off. Entries of
+ * the final archive are deflated at {@link #getLevel}, except for files whose
+ * extension marks them as already compressed, which are always stored.
+ */
+public class CompressionPolicy
+{
+    public static final String DEFAULT_STORED_EXTENSIONS = "png,jpg,jpeg,gif,jar,zip,gz,bz2,xz";
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private boolean storeIntermediates = true;
+    private Set<String> storedExtensions = new HashSet<String>();
+
+    public CompressionPolicy() {
+        setStoredExtensions(DEFAULT_STORED_EXTENSIONS);
+    }
+
+    /**
+     * @param level a {@link Deflater} level from <code>0</code> (store) to
+     *        <code>9</code>, or <code>-1</code> for the default
+     */
+    public void setLevel(int level) {
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Bad compression level " + level);
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setStoreIntermediates(boolean storeIntermediates) {
+        this.storeIntermediates = storeIntermediates;
+    }
+
+    public boolean isStoreIntermediates() {
+        return storeIntermediates;
+    }
+
+    /**
+     * @param extensions a comma-separated list of file extensions, such as
+     *        <code>"png,jar"</code>, or <code>null</code> for none
+     */
+    public void setStoredExtensions(String extensions) {
+        Set<String> set = new HashSet<String>();
+        if (extensions != null) {
+            for (String ext : extensions.split(",")) {
+                ext = ext.trim().toLowerCase();
+                if (ext.startsWith("."))
+                    ext = ext.substring(1);
+                if (ext.length() > 0)
+                    set.add(ext);
+            }
+        }
+        storedExtensions = set;
+    }
+
+    /** Returns the level for an entry of the final archive. */
+    public int getLevel(String name) {
+        if (level == Deflater.NO_COMPRESSION || storedExtensions.isEmpty())
+            return level;
+        int dot = name.lastIndexOf('.');
+        if (dot >= 0 && dot > name.lastIndexOf('/')
+            && storedExtensions.contains(name.substring(dot + 1).toLowerCase()))
+            return Deflater.NO_COMPRESSION;
+        return level;
+    }
+
+    /** Returns the policy for archives that are read again by jarjar. */
+    public CompressionPolicy intermediate() {
+        if (!storeIntermediates)
+            return this;
+        CompressionPolicy policy = new CompressionPolicy();
+        policy.setLevel(Deflater.NO_COMPRESSION);
+        return policy;
+    }
+}
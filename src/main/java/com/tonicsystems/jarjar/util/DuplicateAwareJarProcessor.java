@@ -0,0 +1,42 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+/**
+ * A processor that can tell the output name of an entry from its input name,
+ * so that {@link StandaloneJarProcessor} can skip duplicates without reading
+ * them.
+ */
+public interface DuplicateAwareJarProcessor extends JarProcessor
+{
+    /**
+     * Returns the name the entry will normally have after processing, or
+     * <code>null</code> if it cannot be told without reading the entry.
+     */
+    String getTargetName(String name);
+
+    /**
+     * Called for each file entry that is dropped because its output name is
+     * already taken.
+     *
+     * @param name the name of the dropped entry
+     * @param target the output name it maps to
+     * @param sameContent <code>true</code> if the entry has the same size and
+     *        CRC as the input entry that was written to <code>target</code>
+     */
+    void duplicate(String name, String target, boolean sameContent);
+}
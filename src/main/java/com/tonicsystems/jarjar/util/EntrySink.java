@@ -0,0 +1,32 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.IOException;
+
+/**
+ * Receives the output entries of {@link StandaloneJarProcessor}, for callers
+ * that want them without writing a jar file.
+ */
+public interface EntrySink
+{
+    /**
+     * Called for each output entry in the order they are written. Directory
+     * names end with a slash and have no data.
+     */
+    void write(EntryStruct entry) throws IOException;
+}
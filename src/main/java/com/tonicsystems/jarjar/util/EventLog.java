@@ -0,0 +1,259 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Records what jarjar changed, such as renamed entries and rewritten string
+ * constants, without slowing down the processing threads.
+ * <p>
+ * Records are queued and written by a background thread, one line of tab
+ * separated fields each: level, kind, entry, old value, new value and rule.
+ * The same change is written only once, for the first entry it was seen in.
+ * Records below the level of the log, and changes already logged, are
+ * dropped before they are queued; use {@link #isEnabled} to avoid building
+ * them at all. The queue is bounded, so that threads logging faster than the
+ * records can be written wait for them. Records still queued when the JVM
+ * exits without the log being closed are written by a shutdown hook.
+ */
+public class EventLog
+{
+    public enum Level { DEBUG, INFO, WARN }
+
+    public enum Kind
+    {
+        RENAMED(Level.DEBUG),
+        REMOVED(Level.DEBUG),
+        CHANGED(Level.DEBUG),
+        EXCLUDED(Level.DEBUG),
+        DUPLICATE(Level.DEBUG),
+        MERGED(Level.INFO),
+        CONFLICT(Level.WARN);
+
+        private final Level level;
+
+        private Kind(Level level) {
+            this.level = level;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+    }
+
+    private static final Record END = new Record(null, null, null, null, null);
+    private static final int MAX_QUEUED = 0x10000;
+
+    private final Writer out;
+    private final Level level;
+    private final BlockingQueue<Record> queue = new LinkedBlockingQueue<Record>(MAX_QUEUED);
+    private final ConcurrentMap<Record, Boolean> seen = new ConcurrentHashMap<Record, Boolean>();
+    private final ThreadLocal<String> entry = new ThreadLocal<String>();
+    private Thread writer;
+    private Thread shutdownHook;
+    private volatile IOException failure;
+
+    public EventLog(Writer out, Level level) {
+        this.out = out;
+        this.level = level;
+    }
+
+    public EventLog(File file, Level level) throws IOException {
+        this(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"), level);
+    }
+
+    /** Returns a log to standard error; closing it does not close the stream. */
+    public static EventLog toStandardError(Level level) {
+        return toStream(System.err, level);
+    }
+
+    /** Returns a log to <code>out</code>; closing it does not close the stream. */
+    public static EventLog toStream(OutputStream out, Level level) {
+        return new EventLog(new OutputStreamWriter(new FilterOutputStream(out) {
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            public void close() throws IOException {
+                flush();
+            }
+        }), level);
+    }
+
+    public boolean isEnabled(Kind kind) {
+        return kind.level.compareTo(level) >= 0;
+    }
+
+    /** Sets the entry that the records of the current thread refer to. */
+    public void setEntry(String name) {
+        entry.set(name);
+    }
+
+    public void log(Kind kind, String oldValue, String newValue, String rule) {
+        if (!isEnabled(kind))
+            return;
+        Record record = new Record(kind, entry.get(), oldValue, newValue, rule);
+        // cache hits log the same changes again and again
+        if (seen.putIfAbsent(record, Boolean.TRUE) != null)
+            return;
+        start();
+        try {
+            queue.put(record);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void start() {
+        if (writer != null)
+            return;
+        writer = new Thread("jarjar-event-log") {
+            public void run() {
+                drain();
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+        shutdownHook = new Thread("jarjar-event-log-flush") {
+            public void run() {
+                try {
+                    finish(writer);
+                } catch (InterruptedException e) {
+                    // exiting anyway
+                }
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /** Writes the queued records and closes the output. */
+    public void close() throws IOException {
+        Thread thread;
+        Thread hook;
+        synchronized (this) {
+            thread = writer;
+            hook = shutdownHook;
+        }
+        if (thread != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException e) {
+                // exiting, the hook writes the records too
+            }
+            try {
+                finish(thread);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+        out.close();
+        if (failure != null)
+            throw failure;
+    }
+
+    // waits for the records queued so far to be written and flushed
+    private void finish(Thread thread) throws InterruptedException {
+        queue.put(END);
+        thread.join();
+    }
+
+    private void drain() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            for (;;) {
+                Record record = queue.take();
+                if (record == END)
+                    break;
+                // still taken after a failure, so that loggers do not wait for a full queue
+                if (failure != null)
+                    continue;
+                sb.setLength(0);
+                sb.append(record.kind.level).append('\t').append(record.kind);
+                append(sb, record.entry);
+                append(sb, record.oldValue);
+                append(sb, record.newValue);
+                append(sb, record.rule);
+                try {
+                    out.write(sb.append('\n').toString());
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure == null)
+                out.flush();
+        } catch (InterruptedException e) {
+            // closed
+        } catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private static void append(StringBuilder sb, String value) {
+        sb.append('\t');
+        if (value != null) {
+            for (int i = 0, len = value.length(); i < len; i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                case '\t': sb.append("\\t"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\\': sb.append("\\\\"); break;
+                default: sb.append(c);
+                }
+            }
+        }
+    }
+
+    // equal when they describe the same change, wherever it was seen
+    private static class Record
+    {
+        final Kind kind;
+        final String entry;
+        final String oldValue;
+        final String newValue;
+        final String rule;
+
+        Record(Kind kind, String entry, String oldValue, String newValue, String rule) {
+            this.kind = kind;
+            this.entry = entry;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+            this.rule = rule;
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof Record))
+                return false;
+            Record r = (Record)o;
+            return kind == r.kind && equal(oldValue, r.oldValue) && equal(newValue, r.newValue);
+        }
+
+        public int hashCode() {
+            return kind.hashCode() * 31 + (oldValue == null ? 0 : oldValue.hashCode() * 17)
+                + (newValue == null ? 0 : newValue.hashCode());
+        }
+
+        private static boolean equal(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -18,12 +18,15 @@ package com.tonicsystems.jarjar.util;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 class IoUtil {
     private IoUtil() {}
@@ -55,93 +58,99 @@ class IoUtil {
      * Create a copy of an zip file without its empty directories.
      * @param inputFile
      * @param outputFile
+     * @param policy the compression of the entries of the copy
      * @throws IOException
      */
-    public static void copyZipWithoutEmptyDirectories(final File inputFile, final File outputFile) throws IOException
+    public static void copyZipWithoutEmptyDirectories(final File inputFile, final File outputFile,
+                                                      final CompressionPolicy policy) throws IOException
     {
         final byte[] buf = new byte[0x2000];
 
         final ZipFile inputZip = new ZipFile(inputFile);
-        final ZipOutputStream outputStream = new ZipOutputStream(new FileOutputStream(outputFile));
+        final ParallelZipWriter outputStream = new ParallelZipWriter(new FileOutputStream(outputFile), policy);
         try
         {
-            // read a the entries of the input zip file and sort them
+            final Map<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
             final Enumeration<? extends ZipEntry> e = inputZip.entries();
-            final ArrayList<ZipEntry> sortedList = new ArrayList<ZipEntry>();
             while (e.hasMoreElements()) {
                 final ZipEntry entry = e.nextElement();
-                sortedList.add(entry);
+                entries.put(entry.getName(), entry);
             }
 
-            Collections.sort(sortedList, new Comparator<ZipEntry>()
+            // write entries in normal order; they are compressed in parallel
+            for (String name : sortWithoutEmptyDirectories(entries.keySet()))
             {
-                public int compare(ZipEntry o1, ZipEntry o2)
-                {
-                    String n1 = o1.getName(), n2 = o2.getName();
-                    if (metaOverride(n1, n2)) {
-                        return -1;
-                    }
-                    if (metaOverride(n2, n1)) {
-                        return 1;
-                    }
-                    return n1.compareTo(n2);
-                }
+                final ZipEntry inputEntry = entries.get(name);
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                final InputStream is = inputZip.getInputStream(inputEntry);
+                IoUtil.pipe(is, baos, buf);
+                is.close();
+                outputStream.write(name, inputEntry.getTime(), baos.toByteArray());
+            }
+        } finally {
+            outputStream.close();
+            inputZip.close();
+        }
 
-                // make sure that META-INF/MANIFEST.MF is always the first entry after META-INF/
-                private boolean metaOverride(String n1, String n2) {
-                    return (n1.startsWith("META-INF/") && !n2.startsWith("META-INF/"))
-                        || (n1.equals("META-INF/MANIFEST.MF") && !n2.equals(n1) && !n2.equals("META-INF/"))
-                        || (n1.equals("META-INF/") && !n2.equals(n1));
+    }
+
+    /**
+     * Sorts the names of the entries of a zip file, META-INF first, and
+     * removes the directories that contain no entries.
+     */
+    static List<String> sortWithoutEmptyDirectories(final Collection<String> names)
+    {
+        final ArrayList<String> sortedList = new ArrayList<String>(names);
+        Collections.sort(sortedList, new Comparator<String>()
+        {
+            public int compare(String n1, String n2)
+            {
+                if (metaOverride(n1, n2)) {
+                    return -1;
                 }
-            });
+                if (metaOverride(n2, n1)) {
+                    return 1;
+                }
+                return n1.compareTo(n2);
+            }
 
-            // treat them again and write them in output, wenn they not are empty directories
-            for (int i = sortedList.size()-1; i>=0; i--)
+            // make sure that META-INF/MANIFEST.MF is always the first entry after META-INF/
+            private boolean metaOverride(String n1, String n2) {
+                return (n1.startsWith("META-INF/") && !n2.startsWith("META-INF/"))
+                    || (n1.equals("META-INF/MANIFEST.MF") && !n2.equals(n1) && !n2.equals("META-INF/"))
+                    || (n1.equals("META-INF/") && !n2.equals(n1));
+            }
+        });
+
+        // treat them again and remove the empty directories
+        for (int i = sortedList.size()-1; i>=0; i--)
+        {
+            final String name = sortedList.get(i);
+            final boolean isEmptyDirectory;
+            if (name.endsWith("/"))
             {
-                final ZipEntry inputEntry = sortedList.get(i);
-                final String name = inputEntry.getName();
-                final boolean isEmptyDirectory;
-                if (inputEntry.isDirectory())
+                if (i == sortedList.size()-1)
                 {
-                    if (i == sortedList.size()-1)
-                    {
-                        // no item afterwards; it was an empty directory
-                        isEmptyDirectory = true;
-                    }
-                    else
-                    {
-                        final String nextName = sortedList.get(i+1).getName();
-                        isEmptyDirectory  = !nextName.startsWith(name);
-                    }
+                    // no item afterwards; it was an empty directory
+                    isEmptyDirectory = true;
                 }
                 else
                 {
-                    isEmptyDirectory = false;
-                }
-
-                if (isEmptyDirectory)
-                {
-                    sortedList.remove(i);
+                    final String nextName = sortedList.get(i+1);
+                    isEmptyDirectory  = !nextName.startsWith(name);
                 }
             }
+            else
+            {
+                isEmptyDirectory = false;
+            }
 
-            // finally write entries in normal order
-            for (int i = 0; i < sortedList.size(); i++)
+            if (isEmptyDirectory)
             {
-                final ZipEntry inputEntry = sortedList.get(i);
-                final ZipEntry outputEntry = new ZipEntry(inputEntry);
-                outputStream.putNextEntry(outputEntry);
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                final InputStream is = inputZip.getInputStream(inputEntry);
-                IoUtil.pipe(is, baos, buf);
-                is.close();
-                outputStream.write(baos.toByteArray());
+                sortedList.remove(i);
             }
-        } finally {
-            outputStream.close();
-            inputZip.close();
         }
-
+        return sortedList;
     }
 
 }
@@ -18,6 +18,11 @@ package com.tonicsystems.jarjar.util;
 
 import java.io.IOException;
 
+/**
+ * Processes the entries of a jar one after the other. A processor may keep
+ * state between entries and is used by one thread at a time; see
+ * {@link JarProcessorFactory} for processing entries on several threads.
+ */
 public interface JarProcessor
 {
     /**
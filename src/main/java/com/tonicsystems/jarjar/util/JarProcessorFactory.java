@@ -0,0 +1,47 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.IOException;
+
+/**
+ * Creates processors that run on several threads at the same time.
+ * <p>
+ * A {@link JarProcessor} may keep state between entries, such as caches or
+ * what it found so far, so it is only ever used by one thread at a time. A
+ * factory holds what its workers share and never change, such as compiled
+ * rules, and gives each thread a worker of its own. Whatever the workers
+ * found that the results depend on is handed back through {@link #merge}
+ * once they are done.
+ * <p>
+ * If the factory also implements {@link DuplicateAwareJarProcessor},
+ * {@link MergingJarProcessor} or {@link StrippingJarProcessor},
+ * {@link StandaloneJarProcessor} calls those methods on the factory, from one
+ * thread, in the order of the input.
+ */
+public interface JarProcessorFactory<T extends JarProcessor>
+{
+    /** Returns a new worker. Workers of the same factory may run at the same time. */
+    T createWorker();
+
+    /**
+     * Adds what <code>worker</code> found, such as renamed classes and
+     * dependencies, to the results of this factory. Called once for each
+     * worker after its last entry, never for two workers at the same time.
+     */
+    void merge(T worker) throws IOException;
+}
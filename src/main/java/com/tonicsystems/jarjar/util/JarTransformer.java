@@ -31,10 +31,18 @@ abstract public class JarTransformer implements JarProcessor
             } catch (Exception e) {
                 return true; // TODO?
             }
+            JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.CLASS_TRANSFORM.begin() : null;
+            int bytesIn = struct.data.length;
             GetNameClassWriter w = new GetNameClassWriter(ClassWriter.COMPUTE_MAXS);
             reader.accept(transform(w), ClassReader.EXPAND_FRAMES);
             struct.data = w.toByteArray();
+            String name = struct.name;
             struct.name = pathFromName(w.getClassName());
+            if (event != null) {
+                event.set(0, reader.getClassName()).set(1, w.getClassName())
+                    .set(2, (long)bytesIn).set(3, (long)struct.data.length)
+                    .set(4, !name.equals(struct.name)).commit();
+            }
         }
         return true;
     }
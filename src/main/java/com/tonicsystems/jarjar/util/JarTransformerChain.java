@@ -18,6 +18,10 @@ package com.tonicsystems.jarjar.util;
 
 import org.objectweb.asm.ClassVisitor;
 
+/**
+ * Runs classes through a chain of transformers. The chain is connected to
+ * the writer of each class in turn, so it transforms one class at a time.
+ */
 public class JarTransformerChain extends JarTransformer
 {
     private final RemappingClassTransformer[] chain;
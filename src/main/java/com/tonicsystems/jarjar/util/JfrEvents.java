@@ -0,0 +1,173 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Java Flight Recorder events for the hot paths of jarjar.
+ * <p>
+ * Events are only emitted when the JVM is started with
+ * <code>-Djarjar.jfr=true</code> and has JFR (Java 11 or later). jarjar still
+ * runs on older JVMs, so the event types are created at runtime through
+ * <code>jdk.jfr.EventFactory</code> instead of being compiled against
+ * <code>jdk.jfr.Event</code>. Call sites should check {@link #ENABLED} before
+ * doing any work, which makes disabled events free:
+ * <pre>
+ * JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.STRIP.begin() : null;
+ * ...
+ * if (event != null)
+ *     event.set(0, file.getPath()).commit();
+ * </pre>
+ * The events appear in the "jarjar" category of standard JFR tooling.
+ */
+public final class JfrEvents
+{
+    public static final boolean ENABLED;
+
+    /** name, bytes */
+    public static final Type ENTRY_READ;
+    /** name, newName, kept */
+    public static final Type ENTRY_PROCESS;
+    /** name, bytes */
+    public static final Type ENTRY_WRITE;
+    /** className, newClassName, bytesIn, bytesOut, renamed */
+    public static final Type CLASS_TRANSFORM;
+    /** kind, key, result, rule */
+    public static final Type REMAPPER_CACHE_MISS;
+    /** roots, classes, excluded */
+    public static final Type KEEP_CLOSURE;
+    /** file, excluded */
+    public static final Type STRIP;
+
+    private static Method newEvent, begin, commit, shouldCommit, set;
+
+    static {
+        boolean enabled = false;
+        Type entryRead = null, entryProcess = null, entryWrite = null, classTransform = null,
+            cacheMiss = null, keepClosure = null, strip = null;
+        if (Boolean.getBoolean("jarjar.jfr")) {
+            try {
+                entryRead = new Type("EntryRead", "Entry Read", "Reads an entry of the input archive",
+                    "name", String.class, "bytes", long.class);
+                entryProcess = new Type("EntryProcess", "Entry Process", "Runs an entry through the processor chain",
+                    "name", String.class, "newName", String.class, "kept", boolean.class);
+                entryWrite = new Type("EntryWrite", "Entry Write", "Writes an entry to the output archive",
+                    "name", String.class, "bytes", long.class);
+                classTransform = new Type("ClassTransform", "Class Transform", "Rewrites a class file",
+                    "className", String.class, "newClassName", String.class,
+                    "bytesIn", long.class, "bytesOut", long.class, "renamed", boolean.class);
+                cacheMiss = new Type("RemapperCacheMiss", "Remapper Cache Miss", "Evaluates the rules for a name",
+                    "kind", String.class, "key", String.class, "result", String.class, "rule", String.class);
+                keepClosure = new Type("KeepClosure", "Keep Closure", "Computes the classes reachable from keep roots",
+                    "roots", int.class, "classes", int.class, "excluded", int.class);
+                strip = new Type("Strip", "Strip", "Removes classes that are not reachable from keep roots",
+                    "file", String.class, "excluded", int.class);
+                enabled = true;
+            } catch (Exception e) {
+                System.err.println("JFR events are not available: " + e);
+            }
+        }
+        ENABLED = enabled;
+        ENTRY_READ = entryRead;
+        ENTRY_PROCESS = entryProcess;
+        ENTRY_WRITE = entryWrite;
+        CLASS_TRANSFORM = classTransform;
+        REMAPPER_CACHE_MISS = cacheMiss;
+        KEEP_CLOSURE = keepClosure;
+        STRIP = strip;
+    }
+
+    private JfrEvents() {}
+
+    public static final class Type
+    {
+        private final Object factory;
+
+        private Type(String name, String label, String description, Object... fields) throws Exception {
+            Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+            Constructor<?> newField = valueDescriptor.getConstructor(Class.class, String.class);
+
+            List<Object> annotations = new ArrayList<Object>();
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Name"), "jarjar." + name));
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Description"), description));
+            annotations.add(newAnnotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{ "jarjar" }));
+            List<Object> values = new ArrayList<Object>();
+            for (int i = 0; i < fields.length; i += 2)
+                values.add(newField.newInstance(fields[i + 1], fields[i]));
+            factory = factoryClass.getMethod("create", List.class, List.class).invoke(null, annotations, values);
+
+            synchronized (JfrEvents.class) {
+                if (newEvent == null) {
+                    Class<?> eventClass = Class.forName("jdk.jfr.Event");
+                    begin = eventClass.getMethod("begin");
+                    commit = eventClass.getMethod("commit");
+                    shouldCommit = eventClass.getMethod("shouldCommit");
+                    set = eventClass.getMethod("set", int.class, Object.class);
+                    newEvent = factoryClass.getMethod("newEvent");
+                }
+            }
+        }
+
+        /** Creates an event and starts timing it. */
+        public Event begin() {
+            try {
+                Object event = newEvent.invoke(factory);
+                begin.invoke(event);
+                return new Event(event);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    public static final class Event
+    {
+        private final Object event;
+
+        private Event(Object event) {
+            this.event = event;
+        }
+
+        /** Sets the field at <code>index</code>, in the order listed for the type. */
+        public Event set(int index, Object value) {
+            try {
+                set.invoke(event, index, value);
+                return this;
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /** Ends the event and writes it if a recording wants it. */
+        public void commit() {
+            try {
+                if (Boolean.TRUE.equals(shouldCommit.invoke(event)))
+                    commit.invoke(event);
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
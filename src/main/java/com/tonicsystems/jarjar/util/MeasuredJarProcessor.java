@@ -0,0 +1,53 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.IOException;
+
+/**
+ * Records the time spent in another processor and what it did to the entries
+ * passing through it.
+ */
+public class MeasuredJarProcessor implements JarProcessor
+{
+    private final JarProcessor proc;
+    private final Metrics.ProcessorStats stats;
+
+    public MeasuredJarProcessor(String name, JarProcessor proc, Metrics metrics) {
+        this.proc = proc;
+        this.stats = metrics.getProcessorStats(name);
+    }
+
+    public boolean process(EntryStruct struct) throws IOException {
+        String name = struct.name;
+        stats.entries.incrementAndGet();
+        stats.bytesIn.addAndGet(struct.data.length);
+        long wall = System.nanoTime();
+        long cpu = Metrics.cpuTime();
+        boolean keepIt = proc.process(struct);
+        stats.cpuNanos.addAndGet(Metrics.cpuTime() - cpu);
+        stats.wallNanos.addAndGet(System.nanoTime() - wall);
+        if (keepIt) {
+            stats.bytesOut.addAndGet(struct.data.length);
+            if (!name.equals(struct.name))
+                stats.renamed.incrementAndGet();
+        } else {
+            stats.removed.incrementAndGet();
+        }
+        return keepIt;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.IOException;
+
+/**
+ * A processor whose output may contain entries, such as service files, that
+ * are combined rather than dropped when more than one input entry gets the
+ * same name. {@link StandaloneJarProcessor} holds such entries back and writes
+ * them after all other entries.
+ */
+public interface MergingJarProcessor extends JarProcessor
+{
+    /** Returns <code>true</code> if duplicates of the output entry <code>name</code> are merged. */
+    boolean isMergeable(String name);
+
+    /** Returns the content of <code>name</code> after merging two of its versions. */
+    byte[] merge(String name, byte[] first, byte[] second) throws IOException;
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects timings and counts of a jarjar run: one entry per phase (such as
+ * building the input or stripping the output), one per processor of the
+ * chain, and free-form named counters.
+ */
+public class Metrics
+{
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final List<Phase> phases = new ArrayList<Phase>();
+    private final Map<String, ProcessorStats> processors = new LinkedHashMap<String, ProcessorStats>();
+    private final Map<String, Counter> counters = new LinkedHashMap<String, Counter>();
+
+    /**
+     * Returns the CPU time of the current thread in nanoseconds, or
+     * <code>0</code> if the JVM cannot measure it.
+     */
+    static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /** Starts timing a phase; call {@link Phase#end} when it is done. */
+    public synchronized Phase startPhase(String name) {
+        Phase phase = new Phase(name);
+        phases.add(phase);
+        return phase;
+    }
+
+    public synchronized ProcessorStats getProcessorStats(String name) {
+        ProcessorStats stats = processors.get(name);
+        if (stats == null)
+            processors.put(name, stats = new ProcessorStats(name));
+        return stats;
+    }
+
+    public synchronized Counter getCounter(String name) {
+        Counter counter = counters.get(name);
+        if (counter == null)
+            counters.put(name, counter = new Counter());
+        return counter;
+    }
+
+    /** Returns one human readable line per phase and processor. */
+    public synchronized List<String> summarize() {
+        List<String> lines = new ArrayList<String>();
+        for (Phase phase : phases) {
+            lines.add(String.format("%-20s %8d ms wall %8d ms cpu %12d bytes in %12d bytes out",
+                phase.name, millis(phase.wallNanos), millis(phase.cpuNanos), phase.bytesIn, phase.bytesOut));
+        }
+        for (ProcessorStats stats : processors.values()) {
+            lines.add(String.format("%-20s %8d ms wall %8d ms cpu %8d entries %8d renamed %8d removed",
+                stats.name, millis(stats.wallNanos.get()), millis(stats.cpuNanos.get()),
+                stats.entries.get(), stats.renamed.get(), stats.removed.get()));
+        }
+        return lines;
+    }
+
+    public void writeJson(File file) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writeJson(w);
+        } finally {
+            w.close();
+        }
+    }
+
+    public synchronized void writeJson(Writer w) throws IOException {
+        w.write("{\n  \"phases\": [");
+        String sep = "\n";
+        for (Phase phase : phases) {
+            w.write(sep + "    {\"name\": " + quote(phase.name)
+                + ", \"wallNanos\": " + phase.wallNanos
+                + ", \"cpuNanos\": " + phase.cpuNanos
+                + ", \"bytesIn\": " + phase.bytesIn
+                + ", \"bytesOut\": " + phase.bytesOut + "}");
+            sep = ",\n";
+        }
+        w.write("\n  ],\n  \"processors\": [");
+        sep = "\n";
+        for (ProcessorStats stats : processors.values()) {
+            w.write(sep + "    {\"name\": " + quote(stats.name)
+                + ", \"wallNanos\": " + stats.wallNanos
+                + ", \"cpuNanos\": " + stats.cpuNanos
+                + ", \"entries\": " + stats.entries
+                + ", \"renamed\": " + stats.renamed
+                + ", \"removed\": " + stats.removed
+                + ", \"bytesIn\": " + stats.bytesIn
+                + ", \"bytesOut\": " + stats.bytesOut + "}");
+            sep = ",\n";
+        }
+        w.write("\n  ],\n  \"counters\": {");
+        sep = "\n";
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            w.write(sep + "    " + quote(entry.getKey()) + ": " + entry.getValue().get());
+            sep = ",\n";
+        }
+        w.write("\n  }\n}\n");
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000L;
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0, len = value.length(); i < len; i++) {
+            char ch = value.charAt(i);
+            if (ch == '"' || ch == '\\') {
+                sb.append('\\').append(ch);
+            } else if (ch < 0x20) {
+                sb.append(String.format("\\u%04x", (int)ch));
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    public static class Counter
+    {
+        private final AtomicLong value = new AtomicLong();
+
+        public void add(long n) {
+            value.addAndGet(n);
+        }
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    public static class Phase
+    {
+        private final String name;
+        private final long startWall = System.nanoTime();
+        private final long startCpu = cpuTime();
+        private long wallNanos;
+        private long cpuNanos;
+        private long bytesIn;
+        private long bytesOut;
+
+        private Phase(String name) {
+            this.name = name;
+        }
+
+        public void setBytesIn(long bytesIn) {
+            this.bytesIn = bytesIn;
+        }
+
+        public void setBytesOut(long bytesOut) {
+            this.bytesOut = bytesOut;
+        }
+
+        /** Records the time spent since the phase was started. */
+        public void end() {
+            wallNanos = System.nanoTime() - startWall;
+            cpuNanos = cpuTime() - startCpu;
+        }
+    }
+
+    public static class ProcessorStats
+    {
+        private final String name;
+        final AtomicLong wallNanos = new AtomicLong();
+        final AtomicLong cpuNanos = new AtomicLong();
+        final AtomicLong entries = new AtomicLong();
+        final AtomicLong renamed = new AtomicLong();
+        final AtomicLong removed = new AtomicLong();
+        final AtomicLong bytesIn = new AtomicLong();
+        final AtomicLong bytesOut = new AtomicLong();
+
+        private ProcessorStats(String name) {
+            this.name = name;
+        }
+    }
+}
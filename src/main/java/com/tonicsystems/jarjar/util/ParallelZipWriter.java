@@ -0,0 +1,371 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a zip file whose entries are compressed in parallel.
+ * <p>
+ * Each entry is deflated into an independent stream, and its CRC computed, on
+ * a pool of worker threads. The finished entries are then written in the
+ * order they were added, followed by the central directory. Only a bounded
+ * number of entries is held in memory while waiting for their turn. Entries
+ * that do not get smaller are stored instead. ZIP64 records are written when
+ * the archive has too many entries or gets too large for the classic format.
+ * <p>
+ * Unless given threads of their own, all writers compress on one pool of
+ * daemon threads, as many as there are processors, so that writers used at
+ * the same time do not multiply the threads.
+ * <p>
+ * This class is not thread-safe: entries must be added from a single thread.
+ */
+public class ParallelZipWriter
+{
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+    private static final int UTF8_FLAG = 0x800;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private static final long MAX_PENDING_BYTES = 64L << 20;
+
+    private static ExecutorService sharedExecutor;
+
+    private final DataOutputStream out;
+    private final ExecutorService executor;
+    private final boolean ownExecutor;
+    private final int maxPending;
+    private final CompressionPolicy policy;
+    // ended on close, unlike deflaters kept by the threads of the pool
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<Deflater>();
+    private final LinkedList<Future<Entry>> pending = new LinkedList<Future<Entry>>();
+    private final List<Entry> written = new ArrayList<Entry>();
+    private final Calendar calendar = Calendar.getInstance();
+    private long pendingBytes;
+    private long offset;
+    private volatile boolean closed;
+
+    /** Compresses entries on the pool shared by the writers of this JVM. */
+    public ParallelZipWriter(OutputStream out, CompressionPolicy policy) {
+        this(out, getSharedExecutor(), Runtime.getRuntime().availableProcessors(), false, policy);
+    }
+
+    /**
+     * @param threads the number of threads of the writer's own pool,
+     *        which is shut down on close
+     * @param policy decides the compression level of each entry
+     */
+    public ParallelZipWriter(OutputStream out, int threads, CompressionPolicy policy) {
+        this(out, createExecutor(threads, "jarjar-deflate"), threads, true, policy);
+    }
+
+    private ParallelZipWriter(OutputStream out, ExecutorService executor, int threads, boolean ownExecutor,
+                              CompressionPolicy policy) {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 0x10000));
+        this.policy = policy;
+        this.maxPending = threads * 4;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+    }
+
+    private static synchronized ExecutorService getSharedExecutor() {
+        if (sharedExecutor == null)
+            sharedExecutor = createExecutor(Runtime.getRuntime().availableProcessors(), "jarjar-deflate-shared");
+        return sharedExecutor;
+    }
+
+    private static ExecutorService createExecutor(int threads, final String name) {
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Adds an entry. Names ending with a slash are directories and must have
+     * no data. The data must not be modified after the call.
+     */
+    public void write(final String name, final long time, final byte[] data) throws IOException {
+        if (closed)
+            throw new IOException("Writer closed");
+        pending.add(executor.submit(new Callable<Entry>() {
+            public Entry call() {
+                return compress(name, time, data);
+            }
+        }));
+        pendingBytes += data.length;
+        writeOverflow();
+    }
+
+    /**
+     * Adds an entry read from another archive without inflating it again.
+     * The entry keeps its compression and its time.
+     */
+    public void writeRaw(RawZipFile.Entry source, byte[] raw) throws IOException {
+        if (closed)
+            throw new IOException("Writer closed");
+        Entry entry = new Entry();
+        entry.name = source.name;
+        entry.dosTime = source.dosTime;
+        entry.method = source.method;
+        entry.crc = source.crc;
+        entry.size = source.size;
+        entry.csize = raw.length;
+        entry.data = raw;
+        entry.buffered = raw.length;
+        FutureTask<Entry> done = new FutureTask<Entry>(new Runnable() {
+            public void run() {}
+        }, entry);
+        done.run();
+        pending.add(done);
+        pendingBytes += raw.length;
+        writeOverflow();
+    }
+
+    /**
+     * Writes the remaining entries and the central directory, and closes the
+     * stream. The archive is only complete if this returns normally.
+     */
+    public void close() throws IOException {
+        if (closed)
+            return;
+        boolean complete = false;
+        try {
+            while (!pending.isEmpty())
+                writeNext();
+            writeCentralDirectory();
+            complete = true;
+        } finally {
+            closed = true;
+            for (Future<Entry> entry : pending)
+                entry.cancel(false);
+            pending.clear();
+            if (ownExecutor)
+                executor.shutdownNow();
+            endDeflaters();
+            if (!complete) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // already failed
+                }
+            }
+        }
+        out.close();
+    }
+
+    private void endDeflaters() {
+        for (Deflater deflater; (deflater = deflaters.poll()) != null;)
+            deflater.end();
+    }
+
+    private Entry compress(String name, long time, byte[] data) {
+        Entry entry = new Entry();
+        entry.name = name;
+        entry.time = time;
+        entry.size = data.length;
+        entry.data = data;
+        entry.buffered = data.length;
+        entry.method = STORED;
+        entry.csize = data.length;
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.crc = crc.getValue();
+        int level = data.length > 0 ? policy.getLevel(name) : Deflater.NO_COMPRESSION;
+        if (level != Deflater.NO_COMPRESSION) {
+            Deflater deflater = deflaters.poll();
+            if (deflater == null)
+                deflater = new Deflater(level, true);
+            try {
+                deflater.reset();
+                deflater.setLevel(level);
+                deflater.setInput(data);
+                deflater.finish();
+                // only keep the deflated data if it is smaller
+                byte[] buf = new byte[data.length];
+                int len = 0;
+                while (!deflater.finished() && len < buf.length)
+                    len += deflater.deflate(buf, len, buf.length - len);
+                if (deflater.finished() && len < data.length) {
+                    entry.method = DEFLATED;
+                    entry.data = buf;
+                    entry.csize = len;
+                }
+            } finally {
+                deflaters.offer(deflater);
+                // an entry still compressed when a failed writer was closed
+                if (closed)
+                    endDeflaters();
+            }
+        }
+        return entry;
+    }
+
+    // writes entries until the pending ones fit in the window
+    private void writeOverflow() throws IOException {
+        while (pending.size() > maxPending || (pendingBytes > MAX_PENDING_BYTES && pending.size() > 1))
+            writeNext();
+    }
+
+    private void writeNext() throws IOException {
+        Entry entry;
+        try {
+            entry = pending.removeFirst().get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw (Error)cause;
+        }
+        pendingBytes -= entry.buffered;
+        entry.offset = offset;
+        entry.nameBytes = entry.name.getBytes("UTF-8");
+        if (entry.dosTime == 0)
+            entry.dosTime = dosTime(entry.time);
+        // sizes always fit in the local header since entries are byte arrays
+        out.writeInt(Integer.reverseBytes(LOCAL_HEADER));
+        writeShort(20);
+        writeShort(flags(entry));
+        writeShort(entry.method);
+        out.writeInt(Integer.reverseBytes(entry.dosTime));
+        out.writeInt(Integer.reverseBytes((int)entry.crc));
+        out.writeInt(Integer.reverseBytes((int)entry.csize));
+        out.writeInt(Integer.reverseBytes((int)entry.size));
+        writeShort(entry.nameBytes.length);
+        writeShort(0);
+        out.write(entry.nameBytes);
+        out.write(entry.data, 0, (int)entry.csize);
+        offset += 30 + entry.nameBytes.length + entry.csize;
+        entry.data = null;
+        written.add(entry);
+    }
+
+    private void writeCentralDirectory() throws IOException {
+        long start = offset;
+        for (Entry entry : written) {
+            boolean zip64 = entry.offset >= MAX_32;
+            out.writeInt(Integer.reverseBytes(CENTRAL_HEADER));
+            writeShort(zip64 ? 45 : 20);
+            writeShort(zip64 ? 45 : 20);
+            writeShort(flags(entry));
+            writeShort(entry.method);
+            out.writeInt(Integer.reverseBytes(entry.dosTime));
+            out.writeInt(Integer.reverseBytes((int)entry.crc));
+            out.writeInt(Integer.reverseBytes((int)entry.csize));
+            out.writeInt(Integer.reverseBytes((int)entry.size));
+            writeShort(entry.nameBytes.length);
+            writeShort(zip64 ? 12 : 0);
+            writeShort(0); // comment length
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            out.writeInt(0); // external attributes
+            out.writeInt(Integer.reverseBytes((int)(zip64 ? MAX_32 : entry.offset)));
+            out.write(entry.nameBytes);
+            if (zip64) {
+                writeShort(1);
+                writeShort(8);
+                out.writeLong(Long.reverseBytes(entry.offset));
+            }
+            offset += 46 + entry.nameBytes.length + (zip64 ? 12 : 0);
+        }
+        long size = offset - start;
+        int count = written.size();
+        if (count >= MAX_16 || start >= MAX_32 || size >= MAX_32) {
+            long end = offset;
+            out.writeInt(Integer.reverseBytes(ZIP64_END_HEADER));
+            out.writeLong(Long.reverseBytes(44));
+            writeShort(45);
+            writeShort(45);
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeLong(Long.reverseBytes(count));
+            out.writeLong(Long.reverseBytes(count));
+            out.writeLong(Long.reverseBytes(size));
+            out.writeLong(Long.reverseBytes(start));
+            out.writeInt(Integer.reverseBytes(ZIP64_LOCATOR));
+            out.writeInt(0);
+            out.writeLong(Long.reverseBytes(end));
+            out.writeInt(Integer.reverseBytes(1));
+        }
+        out.writeInt(Integer.reverseBytes(END_HEADER));
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, MAX_16));
+        writeShort(Math.min(count, MAX_16));
+        out.writeInt(Integer.reverseBytes((int)Math.min(size, MAX_32)));
+        out.writeInt(Integer.reverseBytes((int)Math.min(start, MAX_32)));
+        writeShort(0);
+    }
+
+    private static int flags(Entry entry) {
+        for (int i = 0, len = entry.name.length(); i < len; i++) {
+            if (entry.name.charAt(i) >= 0x80)
+                return UTF8_FLAG;
+        }
+        return 0;
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.writeShort(Short.reverseBytes((short)value));
+    }
+
+    private int dosTime(long time) {
+        if (time < 0)
+            time = System.currentTimeMillis();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980)
+            return (1 << 21) | (1 << 16);
+        return (year - 1980) << 25
+            | (calendar.get(Calendar.MONTH) + 1) << 21
+            | calendar.get(Calendar.DAY_OF_MONTH) << 16
+            | calendar.get(Calendar.HOUR_OF_DAY) << 11
+            | calendar.get(Calendar.MINUTE) << 5
+            | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private static class Entry
+    {
+        String name;
+        byte[] nameBytes;
+        long time;
+        int dosTime;
+        int method;
+        long crc;
+        long size;
+        long csize;
+        long offset;
+        byte[] data;
+        long buffered; // bytes counted in pendingBytes
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the entries of a zip file without inflating them, so that they can
+ * be copied to a {@link ParallelZipWriter} as they are. Reads ZIP64 archives
+ * such as the ones written by {@link ParallelZipWriter}; encrypted and
+ * multi-disk archives are not supported.
+ */
+public class RawZipFile
+{
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private final RandomAccessFile file;
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    public RawZipFile(File file) throws IOException {
+        this.file = new RandomAccessFile(file, "r");
+        try {
+            readCentralDirectory();
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /** Returns the entries in the order of the central directory. */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /** Returns the data of <code>entry</code> as it is stored, possibly deflated. */
+    public byte[] readRaw(Entry entry) throws IOException {
+        file.seek(entry.offset + 26);
+        int skip = readShort() + readShort();
+        byte[] data = new byte[(int)entry.csize];
+        file.seek(entry.offset + 30 + skip);
+        file.readFully(data);
+        return data;
+    }
+
+    /** Returns the uncompressed data of <code>entry</code>. */
+    public byte[] read(Entry entry) throws IOException {
+        byte[] raw = readRaw(entry);
+        if (entry.method == 0)
+            return raw;
+        Inflater inflater = new Inflater(true);
+        try {
+            // a dummy byte after the raw stream, as required by nowrap inflaters
+            byte[] input = new byte[raw.length + 1];
+            System.arraycopy(raw, 0, input, 0, raw.length);
+            inflater.setInput(input);
+            byte[] data = new byte[(int)entry.size];
+            int len = 0;
+            while (len < data.length) {
+                int n = inflater.inflate(data, len, data.length - len);
+                if (n == 0 && (inflater.finished() || inflater.needsInput()))
+                    throw new ZipException("Truncated entry " + entry.name);
+                len += n;
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new ZipException("Bad entry " + entry.name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private void readCentralDirectory() throws IOException {
+        long end = findEnd();
+        file.seek(end + 10);
+        long count = readShort();
+        long size = readInt();
+        long start = readInt();
+        if ((count == MAX_16 || size == MAX_32 || start == MAX_32) && end >= 20) {
+            file.seek(end - 20);
+            if (readInt() == ZIP64_LOCATOR) {
+                file.seek(end - 12);
+                file.seek(readLong());
+                if (readInt() != ZIP64_END_HEADER)
+                    throw new ZipException("Bad ZIP64 end record");
+                file.seek(file.getFilePointer() + 28);
+                count = readLong();
+                size = readLong();
+                start = readLong();
+            }
+        }
+        byte[] directory = new byte[(int)size];
+        file.seek(start);
+        file.readFully(directory);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(directory));
+        for (long i = 0; i < count; i++) {
+            if (Integer.reverseBytes(in.readInt()) != CENTRAL_HEADER)
+                throw new ZipException("Bad central directory");
+            Entry entry = new Entry();
+            in.skipBytes(4);
+            int flags = readShort(in);
+            if ((flags & 1) != 0)
+                throw new ZipException("Encrypted entries are not supported");
+            entry.method = readShort(in);
+            entry.dosTime = Integer.reverseBytes(in.readInt());
+            entry.crc = readInt(in);
+            entry.csize = readInt(in);
+            entry.size = readInt(in);
+            int nameLength = readShort(in);
+            int extraLength = readShort(in);
+            int commentLength = readShort(in);
+            in.skipBytes(8);
+            entry.offset = readInt(in);
+            byte[] name = new byte[nameLength];
+            in.readFully(name);
+            entry.name = new String(name, (flags & 0x800) != 0 ? "UTF-8" : "Cp437");
+            while (extraLength >= 4) {
+                int id = readShort(in);
+                int length = readShort(in);
+                extraLength -= 4 + length;
+                if (id == 1) {
+                    // only the fields that overflow are present, in this order
+                    if (entry.size == MAX_32) {
+                        entry.size = Long.reverseBytes(in.readLong());
+                        length -= 8;
+                    }
+                    if (entry.csize == MAX_32) {
+                        entry.csize = Long.reverseBytes(in.readLong());
+                        length -= 8;
+                    }
+                    if (entry.offset == MAX_32) {
+                        entry.offset = Long.reverseBytes(in.readLong());
+                        length -= 8;
+                    }
+                }
+                in.skipBytes(length);
+            }
+            in.skipBytes(extraLength + commentLength);
+            entries.add(entry);
+        }
+    }
+
+    private long findEnd() throws IOException {
+        long length = file.length();
+        long min = Math.max(0, length - 22 - MAX_16);
+        for (long pos = length - 22; pos >= min; pos--) {
+            file.seek(pos);
+            if (readInt() == END_HEADER)
+                return pos;
+        }
+        throw new ZipException("Not a zip file");
+    }
+
+    private int readShort() throws IOException {
+        return Short.reverseBytes(file.readShort()) & 0xFFFF;
+    }
+
+    private long readInt() throws IOException {
+        return Integer.reverseBytes(file.readInt()) & MAX_32;
+    }
+
+    private long readLong() throws IOException {
+        return Long.reverseBytes(file.readLong());
+    }
+
+    private static int readShort(DataInput in) throws IOException {
+        return Short.reverseBytes(in.readShort()) & 0xFFFF;
+    }
+
+    private static long readInt(DataInput in) throws IOException {
+        return Integer.reverseBytes(in.readInt()) & MAX_32;
+    }
+
+    public static class Entry
+    {
+        String name;
+        int method;
+        int dosTime;
+        long crc;
+        long size;
+        long csize;
+        long offset;
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /** Returns the modification time in milliseconds. */
+        public long getTime() {
+            Calendar calendar = Calendar.getInstance();
+            calendar.clear();
+            calendar.set(((dosTime >> 25) & 0x7F) + 1980, ((dosTime >> 21) & 0x0F) - 1, (dosTime >> 16) & 0x1F,
+                         (dosTime >> 11) & 0x1F, (dosTime >> 5) & 0x3F, (dosTime << 1) & 0x3E);
+            return calendar.getTimeInMillis();
+        }
+    }
+}
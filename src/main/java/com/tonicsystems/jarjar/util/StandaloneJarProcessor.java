@@ -18,61 +18,520 @@ package com.tonicsystems.jarjar.util;
 
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 import java.util.Enumeration;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class StandaloneJarProcessor
 {
+    // entries in flight per thread of a parallel run
+    private static final int WINDOW = 16;
+
     public static void run(File from, File to, JarProcessor proc) throws IOException {
         run(from, to, proc, false);
     }
     public static void run(File from, File to, JarProcessor proc, boolean ignoreDuplicates) throws IOException {
+        run(from, to, proc, ignoreDuplicates, new CompressionPolicy());
+    }
+    public static void run(File from, File to, JarProcessor proc, boolean ignoreDuplicates, CompressionPolicy policy) throws IOException {
+        final File tmpTo = File.createTempFile("jarjar", ".jar");
+        run(from, tmpTo, proc, ignoreDuplicates, policy.intermediate(), 0, Integer.MAX_VALUE);
+
+         // delete the empty directories
+        IoUtil.copyZipWithoutEmptyDirectories(tmpTo, to, policy);
+        tmpTo.delete();
+
+    }
+
+    /**
+     * Processes the entries of <code>from</code> whose index is at least
+     * <code>start</code> and less than <code>end</code>, in the order of the
+     * central directory, and writes them to <code>to</code> in that order.
+     * Empty directories are kept, so that the outputs of several ranges can be
+     * joined with {@link #stitch}.
+     */
+    public static void run(File from, File to, JarProcessor proc, boolean ignoreDuplicates, CompressionPolicy policy,
+                           int start, int end) throws IOException {
         byte[] buf = new byte[0x2000];
 
         JarFile in = new JarFile(from);
-        final File tmpTo = File.createTempFile("jarjar", ".jar");
-        JarOutputStream out = new JarOutputStream(new FileOutputStream(tmpTo));
-        Set<String> entries = new HashSet<String>();
+        ParallelZipWriter out = new ParallelZipWriter(new FileOutputStream(to), policy);
         try {
-            EntryStruct struct = new EntryStruct();
+            Pass pass = new Pass(proc, proc, ignoreDuplicates, sink(out), false);
+            Enumeration<JarEntry> e = in.entries();
+            for (int index = 0; index < end && e.hasMoreElements(); index++) {
+                JarEntry entry = e.nextElement();
+                if (index < start || pass.skip(entry))
+                    continue;
+                JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.ENTRY_READ.begin() : null;
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                IoUtil.pipe(in.getInputStream(entry), baos, buf);
+                pass.process(entry, baos.toByteArray(), event);
+            }
+            pass.finish();
+            out.close();
+        }
+        finally {
+            try {
+                in.close();
+            } catch (IOException e) {}
+            closeAfterFailure(out);
+        }
+    }
+
+    /**
+     * Processes <code>from</code> with each of <code>procs</code>, and writes
+     * what each of them makes of it to the file of <code>to</code> at the same
+     * index, as {@link #run(File, File, JarProcessor, boolean, CompressionPolicy)}
+     * would. Each entry is read and inflated once for all processors, which
+     * get their own copy of it and keep their own state.
+     */
+    public static void run(File from, List<File> to, List<? extends JarProcessor> procs, boolean ignoreDuplicates,
+                           CompressionPolicy policy) throws IOException {
+        if (to.size() != procs.size())
+            throw new IllegalArgumentException("Expected " + procs.size() + " outputs, got " + to.size());
+        List<File> tmpTo = new ArrayList<File>();
+        try {
+            for (int i = 0; i < procs.size(); i++)
+                tmpTo.add(File.createTempFile("jarjar", ".jar"));
+            runAll(from, tmpTo, procs, ignoreDuplicates, policy.intermediate());
+
+            // delete the empty directories
+            for (int i = 0; i < procs.size(); i++)
+                IoUtil.copyZipWithoutEmptyDirectories(tmpTo.get(i), to.get(i), policy);
+        } finally {
+            for (File file : tmpTo)
+                file.delete();
+        }
+    }
+
+    private static void runAll(File from, List<File> to, List<? extends JarProcessor> procs, boolean ignoreDuplicates,
+                               CompressionPolicy policy) throws IOException {
+        byte[] buf = new byte[0x2000];
+
+        JarFile in = new JarFile(from);
+        List<ParallelZipWriter> outs = new ArrayList<ParallelZipWriter>();
+        try {
+            Pass[] passes = new Pass[procs.size()];
+            for (int i = 0; i < passes.length; i++) {
+                ParallelZipWriter out = new ParallelZipWriter(new FileOutputStream(to.get(i)), policy);
+                outs.add(out);
+                passes[i] = new Pass(procs.get(i), procs.get(i), ignoreDuplicates, sink(out), false);
+            }
+            boolean[] skipped = new boolean[passes.length];
             Enumeration<JarEntry> e = in.entries();
             while (e.hasMoreElements()) {
                 JarEntry entry = e.nextElement();
-                struct.name = entry.getName();
-                struct.time = entry.getTime();
+                boolean skipAll = true;
+                for (int i = 0; i < passes.length; i++) {
+                    skipped[i] = passes[i].skip(entry);
+                    skipAll &= skipped[i];
+                }
+                if (skipAll)
+                    continue;
+                JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.ENTRY_READ.begin() : null;
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
                 IoUtil.pipe(in.getInputStream(entry), baos, buf);
-                struct.data = baos.toByteArray();
-                if (proc.process(struct)) {
-                    if (entries.add(struct.name)) {
-                        entry = new JarEntry(struct.name);
-                        entry.setTime(struct.time);
-                        entry.setCompressedSize(-1);
-                        out.putNextEntry(entry);
-                        out.write(struct.data);
-                    } else if (struct.name.endsWith("/")) {
-                        // TODO(chrisn): log
-                    } else if (!ignoreDuplicates) {
-                        throw new IllegalArgumentException("Duplicate jar entries: " + struct.name);
-                    }
+                byte[] data = baos.toByteArray();
+                if (event != null)
+                    event.set(0, entry.getName()).set(1, (long)data.length).commit();
+                // processors replace the data rather than change it, so they can share it
+                for (int i = 0; i < passes.length; i++) {
+                    if (!skipped[i])
+                        passes[i].process(entry, data, null);
                 }
             }
+            for (Pass pass : passes)
+                pass.finish();
+            for (ParallelZipWriter out : outs)
+                out.close();
+        }
+        finally {
+            try {
+                in.close();
+            } catch (IOException e) {}
+            for (ParallelZipWriter out : outs)
+                closeAfterFailure(out);
+        }
+    }
+
+    /**
+     * Processes <code>from</code> like
+     * {@link #run(File, File, JarProcessor, boolean, CompressionPolicy)}, but
+     * on <code>threads</code> threads, each with its own worker of
+     * <code>factory</code>. Entries are still written, and duplicates found,
+     * in the order of the input, so the output is the same as with a single
+     * worker. The workers are merged into the factory before this returns.
+     */
+    public static <T extends JarProcessor> void run(File from, File to, JarProcessorFactory<T> factory,
+                                                    boolean ignoreDuplicates, CompressionPolicy policy, int threads)
+        throws IOException {
+        final File tmpTo = File.createTempFile("jarjar", ".jar");
+        try {
+            runParallel(from, tmpTo, factory, ignoreDuplicates, policy.intermediate(), threads);
+
+            // delete the empty directories
+            IoUtil.copyZipWithoutEmptyDirectories(tmpTo, to, policy);
+        } finally {
+            tmpTo.delete();
+        }
+    }
 
+    private static <T extends JarProcessor> void runParallel(File from, File to, JarProcessorFactory<T> factory,
+                                                             boolean ignoreDuplicates, CompressionPolicy policy,
+                                                             int threads) throws IOException {
+        final JarFile in = new JarFile(from);
+        ParallelZipWriter out = new ParallelZipWriter(new FileOutputStream(to), policy);
+        final Workers<T> workers = new Workers<T>(factory, threads);
+        try {
+            Pass pass = new Pass(null, factory, ignoreDuplicates, sink(out), false);
+            LinkedList<JarEntry> entries = new LinkedList<JarEntry>();
+            LinkedList<Future<EntryStruct>> results = new LinkedList<Future<EntryStruct>>();
+            Enumeration<JarEntry> e = in.entries();
+            while (e.hasMoreElements()) {
+                final JarEntry entry = e.nextElement();
+                if (pass.skip(entry))
+                    continue;
+                entries.add(entry);
+                results.add(workers.submit(new Callable<EntryStruct>() {
+                    public EntryStruct call() throws IOException {
+                        JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.ENTRY_READ.begin() : null;
+                        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                        IoUtil.pipe(in.getInputStream(entry), baos, new byte[0x2000]);
+                        EntryStruct struct = newStruct(entry, baos.toByteArray());
+                        return transform(workers.get(), struct, event) ? struct : null;
+                    }
+                }));
+                // bounds the entries held in memory
+                if (results.size() >= WINDOW * threads)
+                    accept(pass, entries.removeFirst(), results.removeFirst());
+            }
+            while (!results.isEmpty())
+                accept(pass, entries.removeFirst(), results.removeFirst());
+            workers.merge();
+            pass.finish();
+            out.close();
         }
         finally {
+            workers.shutdown();
             try {
                 in.close();
             } catch (IOException e) {}
+            closeAfterFailure(out);
+        }
+    }
+
+    // closes the output of a run that failed, whose own exception is the one to report
+    private static void closeAfterFailure(ParallelZipWriter out) {
+        try {
+            out.close();
+        } catch (IOException e) {}
+    }
+
+    // hands a transformed entry to pass, unless it was removed
+    private static void accept(Pass pass, ZipEntry entry, Future<EntryStruct> result) throws IOException {
+        EntryStruct struct = Workers.get(result);
+        if (struct != null)
+            pass.accept(entry, struct);
+    }
+
+    /**
+     * Processes a zip file read from <code>from</code> and writes the result
+     * to <code>to</code>, without temporary files. Both streams are closed.
+     * <p>
+     * Entries are read, processed and written one after the other, in the
+     * order of the input. Only the entries that may still be merged or
+     * stripped, see {@link MergingJarProcessor} and
+     * {@link StrippingJarProcessor}, are held until the end. Empty directories
+     * are left out, but unlike with files the entries are not sorted.
+     */
+    public static void run(InputStream from, OutputStream to, JarProcessor proc, boolean ignoreDuplicates,
+                           CompressionPolicy policy) throws IOException {
+        ParallelZipWriter out = new ParallelZipWriter(to, policy);
+        try {
+            run(from, sink(out), proc, ignoreDuplicates);
+            out.close();
+        }
+        finally {
+            closeAfterFailure(out);
+        }
+    }
+
+    /**
+     * Processes a zip file read from <code>from</code>, as
+     * {@link #run(InputStream, OutputStream, JarProcessor, boolean, CompressionPolicy)}
+     * does, but hands the resulting entries to <code>to</code>. The stream is
+     * closed.
+     */
+    public static void run(InputStream from, EntrySink to, JarProcessor proc, boolean ignoreDuplicates)
+        throws IOException {
+        byte[] buf = new byte[0x2000];
+
+        ZipInputStream in = new ZipInputStream(new BufferedInputStream(from, 0x10000));
+        try {
+            Pass pass = new Pass(proc, proc, ignoreDuplicates, to, true);
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null;) {
+                if (pass.skip(entry))
+                    continue;
+                JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.ENTRY_READ.begin() : null;
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                IoUtil.pipe(in, baos, buf);
+                // the CRC and sizes are only known once the entry is read
+                pass.process(entry, baos.toByteArray(), event);
+            }
+            pass.finish();
+        }
+        finally {
             try {
-                out.close();
+                in.close();
             } catch (IOException e) {}
         }
+    }
 
-         // delete the empty directories
-        IoUtil.copyZipWithoutEmptyDirectories(tmpTo, to);
-        tmpTo.delete();
+    /**
+     * Processes entries that are already in memory, as
+     * {@link #run(InputStream, EntrySink, JarProcessor, boolean)} does.
+     * The entries are not changed.
+     */
+    public static void run(Iterable<EntryStruct> from, EntrySink to, JarProcessor proc, boolean ignoreDuplicates)
+        throws IOException {
+        Pass pass = new Pass(proc, proc, ignoreDuplicates, to, true);
+        CRC32 crc = new CRC32();
+        for (EntryStruct struct : from) {
+            ZipEntry entry = new ZipEntry(struct.name);
+            entry.setTime(struct.time);
+            if (struct.data != null) {
+                // for telling duplicates with the same content
+                crc.reset();
+                crc.update(struct.data);
+                entry.setCrc(crc.getValue());
+                entry.setSize(struct.data.length);
+            }
+            if (!pass.skip(entry))
+                pass.process(entry, struct.data != null ? struct.data : new byte[0], null);
+        }
+        pass.finish();
+    }
+
+    private static EntrySink sink(final ParallelZipWriter out) {
+        return new EntrySink() {
+            public void write(EntryStruct entry) throws IOException {
+                JfrEvents.Event event = JfrEvents.ENABLED ? JfrEvents.ENTRY_WRITE.begin() : null;
+                out.write(entry.name, entry.time, entry.data);
+                if (event != null)
+                    event.set(0, entry.name).set(1, (long)entry.data.length).commit();
+            }
+        };
+    }
+
+    private static EntryStruct newStruct(ZipEntry entry, byte[] data) {
+        EntryStruct struct = new EntryStruct();
+        struct.name = entry.getName();
+        struct.time = entry.getTime();
+        struct.data = data;
+        return struct;
+    }
+
+    // runs proc on an entry that was just read, ending the read event
+    private static boolean transform(JarProcessor proc, EntryStruct struct, JfrEvents.Event event) throws IOException {
+        if (event != null) {
+            event.set(0, struct.name).set(1, (long)struct.data.length).commit();
+            event = JfrEvents.ENTRY_PROCESS.begin().set(0, struct.name);
+        }
+        boolean keepIt = proc.process(struct);
+        if (event != null)
+            event.set(1, struct.name).set(2, keepIt).commit();
+        return keepIt;
+    }
+
+    // handles the processed entries of one input, in order
+    private static class Pass
+    {
+        private final JarProcessor proc;
+        private final boolean ignoreDuplicates;
+        private final EntrySink out;
+        private final DuplicateAwareJarProcessor predictor;
+        private final MergingJarProcessor merger;
+        private final StrippingJarProcessor stripper;
+        // output name -> input entry it was written from
+        private final Map<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
+        private final Map<String, EntryStruct> merged = new LinkedHashMap<String, EntryStruct>();
+        private final Map<String, EntryStruct> held = new LinkedHashMap<String, EntryStruct>();
+        // empty so far, when empty directories are left out
+        private final Map<String, EntryStruct> directories;
+
+        /**
+         * @param proc processes the entries given to {@link #process}
+         * @param roles handles duplicates, merging and stripping if it
+         *        implements the interfaces for them
+         */
+        Pass(JarProcessor proc, Object roles, boolean ignoreDuplicates, EntrySink out, boolean dropEmptyDirectories) {
+            this.proc = proc;
+            this.ignoreDuplicates = ignoreDuplicates;
+            this.out = out;
+            predictor = ignoreDuplicates && roles instanceof DuplicateAwareJarProcessor ? (DuplicateAwareJarProcessor)roles : null;
+            merger = roles instanceof MergingJarProcessor ? (MergingJarProcessor)roles : null;
+            stripper = dropEmptyDirectories && roles instanceof StrippingJarProcessor ? (StrippingJarProcessor)roles : null;
+            directories = dropEmptyDirectories ? new HashMap<String, EntryStruct>() : null;
+        }
+
+        // skips entries whose output name is taken before inflating and transforming them
+        boolean skip(ZipEntry entry) {
+            if (predictor == null)
+                return false;
+            String target = predictor.getTargetName(entry.getName());
+            ZipEntry first = target == null ? null : entries.get(target);
+            if (first != null && target.equals(predictor.getTargetName(first.getName()))) {
+                if (!entry.isDirectory())
+                    predictor.duplicate(entry.getName(), target, sameContent(first, entry));
+                return true;
+            }
+            return false;
+        }
+
+        void process(ZipEntry entry, byte[] data, JfrEvents.Event event) throws IOException {
+            EntryStruct struct = newStruct(entry, data);
+            if (transform(proc, struct, event))
+                accept(entry, struct);
+        }
+
+        // takes an entry that was kept by the processor
+        void accept(ZipEntry entry, EntryStruct struct) throws IOException {
+            if (merger != null && merger.isMergeable(struct.name)) {
+                EntryStruct first = merged.get(struct.name);
+                if (first == null) {
+                    merged.put(struct.name, struct);
+                } else {
+                    first.data = merger.merge(struct.name, first.data, struct.data);
+                }
+            } else {
+                ZipEntry first = entries.get(struct.name);
+                if (first == null) {
+                    entries.put(struct.name, entry);
+                    if (stripper != null && stripper.isStrippable(struct.name)) {
+                        held.put(struct.name, struct);
+                    } else {
+                        write(struct);
+                    }
+                } else if (struct.name.endsWith("/")) {
+                    // TODO(chrisn): log
+                } else if (!ignoreDuplicates) {
+                    throw new IllegalArgumentException("Duplicate jar entries: " + struct.name);
+                } else if (predictor != null) {
+                    predictor.duplicate(entry.getName(), struct.name, sameContent(first, entry));
+                }
+            }
+        }
+
+        void finish() throws IOException {
+            if (stripper != null) {
+                Set<String> excludes = stripper.getExcludedEntries();
+                for (EntryStruct entry : held.values()) {
+                    if (!excludes.contains(entry.name))
+                        write(entry);
+                }
+            }
+            for (EntryStruct entry : merged.values())
+                write(entry);
+        }
+
+        private void write(EntryStruct entry) throws IOException {
+            if (directories != null) {
+                if (entry.name.endsWith("/")) {
+                    // written with its first file
+                    directories.put(entry.name, entry);
+                    return;
+                }
+                for (int slash = entry.name.indexOf('/'); slash >= 0; slash = entry.name.indexOf('/', slash + 1)) {
+                    EntryStruct directory = directories.remove(entry.name.substring(0, slash + 1));
+                    if (directory != null)
+                        out.write(directory);
+                }
+            }
+            out.write(entry);
+        }
+    }
+
+    /**
+     * Joins the outputs of ranged {@link #run runs} into <code>to</code>
+     * without inflating their entries again. As within a run, the first entry
+     * of a name is kept and mergeable resources are merged. Entries named in
+     * <code>excludes</code> and empty directories are left out, and the
+     * entries are sorted like the output of a single run.
+     */
+    public static void stitch(List<File> parts, File to, JarProcessor proc, boolean ignoreDuplicates,
+                              Set<String> excludes, CompressionPolicy policy) throws IOException {
+        DuplicateAwareJarProcessor dups =
+            ignoreDuplicates && proc instanceof DuplicateAwareJarProcessor ? (DuplicateAwareJarProcessor)proc : null;
+        MergingJarProcessor merger = proc instanceof MergingJarProcessor ? (MergingJarProcessor)proc : null;
+        List<RawZipFile> zips = new ArrayList<RawZipFile>();
+        Map<String, RawZipFile.Entry> entries = new HashMap<String, RawZipFile.Entry>();
+        Map<RawZipFile.Entry, RawZipFile> sources = new HashMap<RawZipFile.Entry, RawZipFile>();
+        Map<String, EntryStruct> merged = new HashMap<String, EntryStruct>();
+        ParallelZipWriter out = null;
+        try {
+            for (File part : parts) {
+                RawZipFile zip = new RawZipFile(part);
+                zips.add(zip);
+                for (RawZipFile.Entry entry : zip.getEntries()) {
+                    String name = entry.getName();
+                    if (excludes.contains(name))
+                        continue;
+                    if (merger != null && merger.isMergeable(name)) {
+                        byte[] data = zip.read(entry);
+                        EntryStruct first = merged.get(name);
+                        if (first == null) {
+                            first = new EntryStruct();
+                            first.name = name;
+                            first.time = entry.getTime();
+                            first.data = data;
+                            merged.put(name, first);
+                        } else {
+                            first.data = merger.merge(name, first.data, data);
+                        }
+                        continue;
+                    }
+                    RawZipFile.Entry first = entries.get(name);
+                    if (first == null) {
+                        entries.put(name, entry);
+                        sources.put(entry, zip);
+                    } else if (entry.isDirectory()) {
+                        // same directory in several parts
+                    } else if (!ignoreDuplicates) {
+                        throw new IllegalArgumentException("Duplicate jar entries: " + name);
+                    } else if (dups != null) {
+                        dups.duplicate(name, name, first.getCrc() == entry.getCrc() && first.getSize() == entry.getSize());
+                    }
+                }
+            }
+            Set<String> names = new HashSet<String>(entries.keySet());
+            names.addAll(merged.keySet());
+            out = new ParallelZipWriter(new FileOutputStream(to), policy);
+            for (String name : IoUtil.sortWithoutEmptyDirectories(names)) {
+                EntryStruct struct = merged.get(name);
+                if (struct != null) {
+                    out.write(name, struct.time, struct.data);
+                } else {
+                    RawZipFile.Entry entry = entries.get(name);
+                    out.writeRaw(entry, sources.get(entry).readRaw(entry));
+                }
+            }
+        } finally {
+            for (RawZipFile zip : zips) {
+                try {
+                    zip.close();
+                } catch (IOException e) {}
+            }
+            if (out != null)
+                out.close();
+        }
+    }
 
+    private static boolean sameContent(ZipEntry a, ZipEntry b) {
+        return a.getCrc() != -1 && a.getCrc() == b.getCrc() && a.getSize() == b.getSize();
     }
 }
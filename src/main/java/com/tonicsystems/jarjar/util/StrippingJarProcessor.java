@@ -0,0 +1,34 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.util.Set;
+
+/**
+ * A processor that can only tell which of its output entries to delete once
+ * all input entries were processed, as with keep rules. When it writes to a
+ * stream, {@link StandaloneJarProcessor} holds the entries that may be
+ * deleted back, and writes those that are not excluded at the end.
+ */
+public interface StrippingJarProcessor extends JarProcessor
+{
+    /** Returns <code>true</code> if the output entry <code>name</code> may be excluded. */
+    boolean isStrippable(String name);
+
+    /** Returns the output entries to delete, once all entries were processed. */
+    Set<String> getExcludedEntries();
+}
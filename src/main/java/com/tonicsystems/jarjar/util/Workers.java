@@ -0,0 +1,84 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A pool of threads that each use their own worker of a
+ * {@link JarProcessorFactory}.
+ */
+class Workers<T extends JarProcessor>
+{
+    private final JarProcessorFactory<T> factory;
+    private final ExecutorService executor;
+    private final List<T> created = new ArrayList<T>();
+    private final ThreadLocal<T> worker = new ThreadLocal<T>() {
+        protected T initialValue() {
+            T w = factory.createWorker();
+            synchronized (created) {
+                created.add(w);
+            }
+            return w;
+        }
+    };
+
+    public Workers(JarProcessorFactory<T> factory, int threads) {
+        this.factory = factory;
+        executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /** Returns the worker of the current thread, which must be one of the pool. */
+    public T get() {
+        return worker.get();
+    }
+
+    public <V> Future<V> submit(Callable<V> task) {
+        return executor.submit(task);
+    }
+
+    /** Merges the workers into the factory, once all tasks are done. */
+    public void merge() throws IOException {
+        synchronized (created) {
+            for (T w : created)
+                factory.merge(w);
+            created.clear();
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /** Returns the result of a task, or throws what it threw. */
+    public static <V> V get(Future<V> result) throws IOException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException)cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException)cause;
+            throw (Error)cause;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+public class BatchProcessorTest
+extends TestCase
+{
+    private static final List<String> SHADED =
+        Arrays.asList("data/", "data/a.txt", "data/b.txt", "shaded/", "shaded/Main.class", "shaded/Used.class");
+
+    public void testManifest() throws Exception {
+        File dir = createDirectory();
+        try {
+            write(new File(dir, "first.jar"), MainProcessorTest.createJar());
+            write(new File(dir, "bad.jar"), "not a jar".getBytes("UTF-8"));
+            write(new File(dir, "second.jar"), MainProcessorTest.createJar());
+            write(new File(dir, "rules.txt"), "rule org.example.** shaded.@1\nkeep org.example.Main\n".getBytes("UTF-8"));
+            write(new File(dir, "jars.txt"), ("# input and output\n"
+                                              + "first.jar out-first.jar\n"
+                                              + "\n"
+                                              + "bad.jar out-bad.jar\n"
+                                              + "second.jar out-second.jar\n").getBytes("UTF-8"));
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            try {
+                createMain(err).batch(new File(dir, "rules.txt"), new File(dir, "jars.txt"), null);
+                fail();
+            } catch (IOException e) {
+                assertEquals("1 of 3 jars failed", e.getMessage());
+            }
+            // the others are written anyway
+            assertEquals(SHADED, new ArrayList<String>(MainProcessorTest.readJar(new File(dir, "out-first.jar")).keySet()));
+            assertEquals(SHADED, new ArrayList<String>(MainProcessorTest.readJar(new File(dir, "out-second.jar")).keySet()));
+            String errors = err.toString("UTF-8");
+            assertTrue(errors, errors.startsWith("Error processing " + new File(dir, "bad.jar") + ":"));
+            assertEquals(errors, -1, errors.indexOf("first.jar"));
+            assertEquals(errors, -1, errors.indexOf("second.jar"));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    public void testGlob() throws Exception {
+        File dir = createDirectory();
+        try {
+            write(new File(dir, "a.jar"), MainProcessorTest.createJar());
+            write(new File(dir, "b.jar"), MainProcessorTest.createJar());
+            write(new File(dir, "rules.txt"), "rule org.example.** shaded.@1\nkeep org.example.Main\n".getBytes("UTF-8"));
+            File outDir = new File(dir, "out");
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            createMain(err).batch(new File(dir, "rules.txt"), new File(dir, "*.jar"), outDir);
+            assertEquals(Arrays.asList("a.jar", "b.jar"), sorted(outDir.list()));
+            assertEquals(SHADED, new ArrayList<String>(MainProcessorTest.readJar(new File(outDir, "a.jar")).keySet()));
+            assertEquals(SHADED, new ArrayList<String>(MainProcessorTest.readJar(new File(outDir, "b.jar")).keySet()));
+            assertEquals("", err.toString("UTF-8"));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    private static Main createMain(ByteArrayOutputStream err) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("threads", "2");
+        return new Main(properties, new PrintStream(new ByteArrayOutputStream()), new PrintStream(err, true, "UTF-8"), null);
+    }
+
+    private static File createDirectory() throws IOException {
+        File dir = File.createTempFile("jarjar", ".batch");
+        dir.delete();
+        dir.mkdir();
+        return dir;
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> sorted(String[] names) {
+        List<String> list = new ArrayList<String>(Arrays.asList(names));
+        Collections.sort(list);
+        return list;
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files)
+                delete(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import junit.framework.*;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.*;
+
+public class DaemonTest
+extends TestCase
+{
+    public void testJobs() throws Exception {
+        File dir = File.createTempFile("jarjar", ".daemon");
+        dir.delete();
+        dir.mkdir();
+        File rules = new File(dir, "rules.txt");
+        File in = new File(dir, "in.jar");
+        File out = new File(dir, "out.jar");
+        try {
+            write(rules, "rule org.example.** shaded.@1\n".getBytes("UTF-8"));
+            write(in, MainProcessorTest.createJar());
+
+            final Daemon daemon = new Daemon(0, dir);
+            int port = daemon.listen();
+            File tokenFile = new File(dir, "daemon-" + port + ".token");
+            assertTrue(tokenFile.isFile());
+            final Throwable[] failure = new Throwable[1];
+            Thread thread = new Thread() {
+                public void run() {
+                    try {
+                        daemon.run();
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            thread.start();
+
+            ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+            ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+            String[] process = { "process", rules.getPath(), in.getPath(), out.getPath() };
+            assertEquals(0, Daemon.send(dir, port, process, new PrintStream(stdout), new PrintStream(stderr)));
+            assertEquals("", stderr.toString());
+            assertTrue(MainProcessorTest.readJar(out).containsKey("shaded/Main.class"));
+
+            // without the token the connection is closed and nothing runs
+            Socket socket = new Socket(InetAddress.getByName("127.0.0.1"), port);
+            try {
+                Writer w = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+                w.write("token\tguessed\narg\tstop\n\n");
+                w.flush();
+                assertEquals(-1, socket.getInputStream().read());
+            } finally {
+                socket.close();
+            }
+            assertTrue(thread.isAlive());
+
+            String[] help = { "daemon" };
+            assertEquals(1, Daemon.send(dir, port, help, new PrintStream(stdout), new PrintStream(stderr)));
+            assertTrue(stderr.toString(), stderr.toString().contains("cannot be run by the daemon"));
+
+            assertEquals(0, Daemon.send(dir, port, new String[]{ "stop" }, new PrintStream(stdout),
+                                        new PrintStream(stderr)));
+            thread.join(10000);
+            assertFalse(thread.isAlive());
+            assertNull(failure[0]);
+            assertFalse(tokenFile.exists());
+        } finally {
+            for (File file : dir.listFiles())
+                file.delete();
+            dir.delete();
+        }
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
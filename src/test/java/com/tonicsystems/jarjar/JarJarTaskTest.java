@@ -0,0 +1,70 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import junit.framework.*;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.ZipFileSet;
+
+import java.io.*;
+import java.util.*;
+
+public class JarJarTaskTest
+extends TestCase
+{
+    public void testEntries() throws Exception {
+        // in the order ant adds them, without the empty and emptied directories
+        List<String> expected = Arrays.asList("META-INF/", "META-INF/MANIFEST.MF", "data/", "data/a.txt",
+                                              "data/b.txt", "shaded/", "shaded/Main.class", "shaded/Used.class");
+        assertEquals(expected, run(1));
+        assertEquals(expected, run(4));
+    }
+
+    // the entries of the test jar after the task, with the rules of MainProcessorTest
+    private static List<String> run(int threads) throws IOException {
+        File from = File.createTempFile("jarjar", ".jar");
+        File to = File.createTempFile("jarjar", ".jar");
+        try {
+            OutputStream out = new FileOutputStream(from);
+            out.write(MainProcessorTest.createJar());
+            out.close();
+
+            Project project = new Project();
+            project.init();
+            JarJarTask task = new JarJarTask();
+            task.setProject(project);
+            task.setDestFile(to);
+            task.setThreads(threads);
+            ZipFileSet fileset = new ZipFileSet();
+            fileset.setSrc(from);
+            task.addZipfileset(fileset);
+            Rule rule = new Rule();
+            rule.setPattern("org.example.**");
+            rule.setResult("shaded.@1");
+            task.addConfiguredRule(rule);
+            Keep keep = new Keep();
+            keep.setPattern("org.example.Main");
+            task.addConfiguredKeep(keep);
+            task.execute();
+
+            return new ArrayList<String>(MainProcessorTest.readJar(to).keySet());
+        } finally {
+            from.delete();
+            to.delete();
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.CompressionPolicy;
+import com.tonicsystems.jarjar.util.JfrEvents;
+import com.tonicsystems.jarjar.util.StandaloneJarProcessor;
+import junit.framework.*;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+public class MainProcessorTest
+extends TestCase
+{
+    private static final String RULES =
+        "rule org.example.** shaded.@1\nkeep org.example.Main\n";
+
+    public void testStream() throws Exception {
+        MainProcessor proc = createProcessor(RULES);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StandaloneJarProcessor.run(new ByteArrayInputStream(createJar()), out, proc, false, new CompressionPolicy());
+        proc.close();
+        // kept classes are held until the end, empty and emptied directories are left out
+        assertEquals(Arrays.asList("data/", "data/b.txt", "data/a.txt", "shaded/", "shaded/Main.class", "shaded/Used.class"),
+                     new ArrayList<String>(readJar(out.toByteArray()).keySet()));
+    }
+
+    public void testStreamFailure() throws Exception {
+        MainProcessor proc = createProcessor(RULES);
+        try {
+            StandaloneJarProcessor.run(new ByteArrayInputStream(createJar()), new OutputStream() {
+                public void write(int b) throws IOException {
+                    throw new IOException("disk full");
+                }
+            }, proc, false, new CompressionPolicy());
+            fail();
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        } finally {
+            proc.close();
+        }
+    }
+
+    public void testThreads() throws Exception {
+        File from = File.createTempFile("jarjar", ".jar");
+        File sequential = File.createTempFile("jarjar", ".jar");
+        File parallel = File.createTempFile("jarjar", ".jar");
+        try {
+            OutputStream out = new FileOutputStream(from);
+            out.write(createJar());
+            out.close();
+
+            StringWriter sequentialMapping = new StringWriter();
+            MainProcessor proc = createProcessor(RULES);
+            proc.setMappingOutput(new Mapping.Output(sequentialMapping));
+            StandaloneJarProcessor.run(from, sequential, proc, false, new CompressionPolicy());
+            proc.close();
+
+            StringWriter parallelMapping = new StringWriter();
+            MainProcessor factory = createProcessor(RULES);
+            factory.setMappingOutput(new Mapping.Output(parallelMapping));
+            StandaloneJarProcessor.run(from, parallel, factory, false, new CompressionPolicy(), 4);
+            factory.close();
+
+            Map<String, byte[]> expected = readJar(sequential);
+            Map<String, byte[]> actual = readJar(parallel);
+            assertEquals(expected.keySet(), actual.keySet());
+            for (String name : expected.keySet())
+                assertTrue(name, Arrays.equals(expected.get(name), actual.get(name)));
+            assertEquals(proc.getExcludedEntries(), factory.getExcludedEntries());
+            assertEquals(Collections.singleton("shaded/Unused.class"), factory.getExcludedEntries());
+
+            assertEquals(sortedLines(sequentialMapping.toString()), sortedLines(parallelMapping.toString()));
+            List<String> lines = Arrays.asList(parallelMapping.toString().split("\n"));
+            assertEquals(lines.size(), new HashSet<String>(lines).size());
+        } finally {
+            from.delete();
+            sequential.delete();
+            parallel.delete();
+        }
+    }
+
+    public void testVariants() throws Exception {
+        String[] variants = { RULES, "rule org.example.** other.@1\n", "zap org.example.Unused\n" };
+        List<File> files = new ArrayList<File>();
+        try {
+            File from = File.createTempFile("jarjar", ".jar");
+            files.add(from);
+            OutputStream out = new FileOutputStream(from);
+            out.write(createJar());
+            out.close();
+
+            List<File> to = new ArrayList<File>();
+            List<MainProcessor> procs = new ArrayList<MainProcessor>();
+            for (String rules : variants) {
+                File file = File.createTempFile("jarjar", ".jar");
+                files.add(file);
+                to.add(file);
+                procs.add(createProcessor(rules));
+            }
+            StandaloneJarProcessor.run(from, to, procs, false, new CompressionPolicy());
+            for (MainProcessor proc : procs)
+                proc.close();
+
+            for (int i = 0; i < variants.length; i++) {
+                File single = File.createTempFile("jarjar", ".jar");
+                files.add(single);
+                MainProcessor proc = createProcessor(variants[i]);
+                StandaloneJarProcessor.run(from, single, proc, false, new CompressionPolicy());
+                proc.close();
+
+                Map<String, byte[]> expected = readJar(single);
+                Map<String, byte[]> actual = readJar(to.get(i));
+                assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(actual.keySet()));
+                for (String name : expected.keySet())
+                    assertTrue(name, Arrays.equals(expected.get(name), actual.get(name)));
+                assertEquals(proc.getExcludedEntries(), procs.get(i).getExcludedEntries());
+            }
+        } finally {
+            for (File file : files)
+                file.delete();
+        }
+    }
+
+    public void testJfrDisabled() throws Exception {
+        // off unless asked for with -Djarjar.jfr=true, and silent
+        assertNull(System.getProperty("jarjar.jfr"));
+        PrintStream err = System.err;
+        ByteArrayOutputStream errBytes = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errBytes));
+        File from = File.createTempFile("jarjar", ".jar");
+        File to = File.createTempFile("jarjar", ".jar");
+        try {
+            assertFalse(JfrEvents.ENABLED);
+            assertNull(JfrEvents.ENTRY_PROCESS);
+            assertNull(JfrEvents.CLASS_TRANSFORM);
+            assertNull(JfrEvents.STRIP);
+
+            OutputStream out = new FileOutputStream(from);
+            out.write(createJar());
+            out.close();
+            MainProcessor proc = createProcessor(RULES);
+            StandaloneJarProcessor.run(from, to, proc, false, new CompressionPolicy());
+            proc.strip(to, new CompressionPolicy());
+            proc.close();
+            assertEquals(Arrays.asList("data/", "data/a.txt", "data/b.txt", "shaded/", "shaded/Main.class", "shaded/Used.class"),
+                         new ArrayList<String>(readJar(to).keySet()));
+        } finally {
+            System.setErr(err);
+            from.delete();
+            to.delete();
+        }
+        assertEquals("", errBytes.toString());
+    }
+
+    public void testDuplicateNotRead() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        addEntry(zip, "org/example/Main.class", createClass("org/example/Main", "Ljava/lang/String;"));
+        addEntry(zip, "shaded/Main.class", createClass("shaded/Main", "Ljava/lang/Object;"));
+        zip.close();
+        byte[] jar = bytes.toByteArray();
+        // corrupt the data of the duplicate, so that it cannot be inflated
+        int header = indexOf(jar, "shaded/Main.class".getBytes("UTF-8"));
+        int data = header + 17 + ((jar[header - 2] & 0xFF) | (jar[header - 1] & 0xFF) << 8);
+        jar[data] = (byte)0xFF;
+
+        File from = File.createTempFile("jarjar", ".jar");
+        File to = File.createTempFile("jarjar", ".jar");
+        try {
+            OutputStream out = new FileOutputStream(from);
+            out.write(jar);
+            out.close();
+            MainProcessor proc = createProcessor("rule org.example.** shaded.@1\n");
+            StandaloneJarProcessor.run(from, to, proc, true, new CompressionPolicy());
+            proc.close();
+            assertEquals(1, proc.getDuplicateCount());
+            assertEquals(1, proc.getConflictCount());
+            Map<String, byte[]> entries = readJar(to);
+            assertEquals(Collections.singleton("shaded/Main.class"), entries.keySet());
+            assertTrue(Arrays.equals(createClass("shaded/Main", "Ljava/lang/String;"), entries.get("shaded/Main.class")));
+        } finally {
+            from.delete();
+            to.delete();
+        }
+    }
+
+    private static int indexOf(byte[] array, byte[] target) {
+        outer:
+        for (int i = 0; i <= array.length - target.length; i++) {
+            for (int j = 0; j < target.length; j++) {
+                if (array[i + j] != target[j])
+                    continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static List<String> sortedLines(String text) {
+        List<String> lines = new ArrayList<String>(Arrays.asList(text.split("\n")));
+        Collections.sort(lines);
+        return lines;
+    }
+
+    static MainProcessor createProcessor(String rules) throws IOException {
+        return new MainProcessor(CompiledRules.parse(rules), null, false, false, null);
+    }
+
+    // a jar with kept, used and unused classes, resources out of order and an empty directory
+    static byte[] createJar() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        addEntry(zip, "org/", null);
+        addEntry(zip, "org/example/", null);
+        addEntry(zip, "org/example/Main.class", createClass("org/example/Main", "Lorg/example/Used;"));
+        addEntry(zip, "org/example/Unused.class", createClass("org/example/Unused", "Ljava/lang/String;"));
+        addEntry(zip, "empty/", null);
+        addEntry(zip, "data/", null);
+        addEntry(zip, "data/b.txt", "org.example.Used\n".getBytes("UTF-8"));
+        addEntry(zip, "org/example/Used.class", createClass("org/example/Used", "Ljava/lang/String;"));
+        addEntry(zip, "data/a.txt", "a\n".getBytes("UTF-8"));
+        zip.close();
+        return bytes.toByteArray();
+    }
+
+    static Map<String, byte[]> readJar(byte[] jar) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(jar));
+        byte[] buf = new byte[0x2000];
+        for (ZipEntry entry; (entry = in.getNextEntry()) != null;) {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            for (int n; (n = in.read(buf)) >= 0;)
+                data.write(buf, 0, n);
+            entries.put(entry.getName(), data.toByteArray());
+        }
+        return entries;
+    }
+
+    static Map<String, byte[]> readJar(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            byte[] buf = new byte[0x2000];
+            for (int n; (n = in.read(buf)) >= 0;)
+                data.write(buf, 0, n);
+            return readJar(data.toByteArray());
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void addEntry(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        if (data != null)
+            zip.write(data);
+    }
+
+    private static byte[] createClass(String name, String fieldDesc) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+        cw.visitField(Opcodes.ACC_PUBLIC, "field", fieldDesc, null, null).visitEnd();
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
@@ -16,8 +16,11 @@
 
 package com.tonicsystems.jarjar;
 
+import com.tonicsystems.jarjar.util.Metrics;
 import junit.framework.*;
 
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.Collections;
 
 public class PackageRemapperTest
@@ -53,6 +56,106 @@ extends TestCase
       assertEquals("foo/example.package-info", remapper.mapValue("org/example.package-info"));
     }
 
+    public void testRejectValue() {
+      Metrics metrics = new Metrics();
+      remapper.setMetrics(metrics);
+      assertUnchangedValue("Unable to load the configuration of the organization");
+      assertUnchangedValue("Unable to load the configuration of the organization");
+      assertEquals(2, metrics.getCounter("cache.value.rejected").get());
+      assertEquals(0, metrics.getCounter("cache.value.misses").get());
+      assertEquals("foo/example/Object", remapper.mapValue("org/example/Object"));
+      assertEquals(1, metrics.getCounter("cache.value.misses").get());
+    }
+
+    public void testMapPath() {
+      Metrics metrics = new Metrics();
+      remapper.setMetrics(metrics);
+      assertEquals("foo/example/x.properties", remapper.mapPath("org/example/x.properties"));
+      assertEquals("/foo/example/x.properties", remapper.mapPath("/org/example/x.properties"));
+      assertEquals("foo/example/", remapper.mapPath("org/example/"));
+      assertEquals("org.example/x.properties", remapper.mapPath("org.example/x.properties"));
+      assertEquals("org.example/y.properties", remapper.mapPath("org.example/y.properties"));
+      assertEquals("META-INF/x.properties", remapper.mapPath("META-INF/x.properties"));
+      assertEquals("x.properties", remapper.mapPath("x.properties"));
+      // one miss for each of org/example/ and org.example/, the rest are hits or rejected by prefix
+      assertEquals(2, metrics.getCounter("cache.path.misses").get());
+      assertEquals(2, metrics.getCounter("cache.path.rejected").get());
+    }
+
+    public void testApplyMapping() throws Exception {
+      StringWriter w = new StringWriter();
+      remapper.setMappingOutput(new Mapping.Output(w));
+      assertEquals("foo/example/Object", remapper.map("org/example/Object"));
+      assertEquals("foo/example/x.properties", remapper.mapPath("org/example/x.properties"));
+      assertEquals("foo.example.Object", remapper.mapValue("org.example.Object"));
+      assertUnchangedValue("see\torg.example.Object");
+
+      Mapping mapping = Mapping.read(new StringReader(w.toString()));
+      assertEquals("foo/example/Object", mapping.getRenames(Mapping.CLASS).get("org/example/Object"));
+      assertEquals("foo/example/x.properties", mapping.getRenames(Mapping.RESOURCE).get("org/example/x.properties"));
+      remapper = new PackageRemapper(mapping, false);
+      assertEquals("foo/example/Object", remapper.map("org/example/Object"));
+      assertEquals("foo/example/x.properties", remapper.mapPath("org/example/x.properties"));
+      assertEquals("foo.example.Object", remapper.mapValue("org.example.Object"));
+      assertEquals("[Lfoo.example.Object;", remapper.mapValue("[Lorg.example.Object;"));
+      // not in the mapping, although the rule would match
+      assertNull(remapper.map("org/example/Other"));
+      assertEquals("org/example/y.properties", remapper.mapPath("org/example/y.properties"));
+    }
+
+    public void testSharedRules() {
+      Rule rule = new Rule();
+      rule.setPattern("org.**");
+      rule.setResult("foo.@1");
+      CompiledRules rules = new CompiledRules(Collections.singletonList(rule));
+      PackageRemapper first = new PackageRemapper(rules, false);
+      PackageRemapper second = new PackageRemapper(rules, false);
+      Metrics metrics = new Metrics();
+      second.setMetrics(metrics);
+      assertEquals("foo/example/Object", first.map("org/example/Object"));
+      assertEquals("foo/example/Object", second.map("org/example/Object"));
+      assertNull(second.map("java/lang/Object"));
+      assertNull(second.map("java/lang/Object"));
+      // each remapper counts its own misses and matches, unmapped types included
+      assertEquals(2, metrics.getCounter("cache.type.misses").get());
+      assertEquals(1, metrics.getCounter("cache.type.hits").get());
+      assertEquals(1, metrics.getCounter("rule.0 org.**").get());
+    }
+
+    public void testRulesCache() {
+      CompiledRules.Cache cache = new CompiledRules.Cache(1);
+      CompiledRules rules = cache.get(Collections.singletonList(createRule("org.**", "foo.@1")));
+      // the same content, from other objects
+      assertSame(rules, cache.get(Collections.singletonList(createRule("org.**", "foo.@1"))));
+      assertNotSame(rules, cache.get(Collections.singletonList(createRule("org.**", "bar.@1"))));
+      // dropped as the least recently used
+      assertNotSame(rules, cache.get(Collections.singletonList(createRule("org.**", "foo.@1"))));
+    }
+
+    public void testMaxResults() {
+      CompiledRules rules = new CompiledRules(Collections.singletonList(createRule("org.**", "foo.@1")), 2);
+      // the results are dropped on the third name, and matched again by the next remapper
+      for (int i = 0; i < 2; i++) {
+        PackageRemapper remapper = new PackageRemapper(rules, false);
+        assertEquals("foo/a/A", remapper.map("org/a/A"));
+        assertEquals("foo/b/B", remapper.map("org/b/B"));
+        assertNull(remapper.map("com/c/C"));
+      }
+      try {
+        new CompiledRules(Collections.<PatternElement>emptyList(), 0);
+        fail();
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+
+    private static Rule createRule(String pattern, String result) {
+      Rule rule = new Rule();
+      rule.setPattern(pattern);
+      rule.setResult(result);
+      return rule;
+    }
+
     private void assertUnchangedValue(String value) {
         assertEquals(value, remapper.mapValue(value));
     }
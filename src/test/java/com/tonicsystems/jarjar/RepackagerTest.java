@@ -0,0 +1,116 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.EntrySink;
+import com.tonicsystems.jarjar.util.EntryStruct;
+import junit.framework.*;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class RepackagerTest
+extends TestCase
+{
+    protected Repackager repackager;
+
+    protected void setUp() throws Exception {
+        repackager = new Repackager(CompiledRules.parse("rule org.example.** shaded.@1\nzap org.example.Zapped\n"));
+    }
+
+    public void testEntries() throws Exception {
+        List<EntryStruct> entries = new ArrayList<EntryStruct>();
+        entries.add(entry("org/", null));
+        entries.add(entry("org/example/", null));
+        entries.add(entry("org/example/Impl.class", createClass("org/example/Impl", "org/example/Api")));
+        entries.add(entry("org/example/Zapped.class", createClass("org/example/Zapped", "java/lang/Runnable")));
+        entries.add(entry("META-INF/services/org.example.Api", "org.example.Impl\n".getBytes("UTF-8")));
+        entries.add(entry("empty/", null));
+        Map<String, EntryStruct> output = run(entries);
+
+        assertEquals(Arrays.asList("shaded/", "shaded/Impl.class", "META-INF/services/shaded.Api"),
+                     new ArrayList<String>(output.keySet()));
+        ClassReader reader = new ClassReader(output.get("shaded/Impl.class").data);
+        assertEquals("shaded/Impl", reader.getClassName());
+        assertEquals("shaded/Api", reader.getInterfaces()[0]);
+        assertEquals("shaded.Impl\n", new String(output.get("META-INF/services/shaded.Api").data, "UTF-8"));
+    }
+
+    public void testArchive() throws Exception {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(archive);
+        zip.putNextEntry(new ZipEntry("org/example/Impl.class"));
+        zip.write(createClass("org/example/Impl", "org/example/Api"));
+        zip.putNextEntry(new ZipEntry("META-INF/services/org.example.Api"));
+        zip.write("org.example.Impl\n".getBytes("UTF-8"));
+        zip.putNextEntry(new ZipEntry("META-INF/services/shaded.Api"));
+        zip.write("org.example.Other\n".getBytes("UTF-8"));
+        zip.close();
+
+        final Map<String, EntryStruct> output = new LinkedHashMap<String, EntryStruct>();
+        repackager.run(archive.toByteArray(), new EntrySink() {
+            public void write(EntryStruct entry) {
+                output.put(entry.name, entry);
+            }
+        });
+        assertEquals(Arrays.asList("shaded/Impl.class", "META-INF/services/shaded.Api"),
+                     new ArrayList<String>(output.keySet()));
+        assertEquals("shaded.Impl\nshaded.Other\n",
+                     new String(output.get("META-INF/services/shaded.Api").data, "UTF-8"));
+    }
+
+    public void testDuplicate() throws Exception {
+        List<EntryStruct> entries = new ArrayList<EntryStruct>();
+        entries.add(entry("org/example/Impl.class", createClass("org/example/Impl", "org/example/Api")));
+        entries.add(entry("org/example/Impl.class", createClass("org/example/Impl", "org/example/Api")));
+        try {
+            run(entries);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("Duplicate jar entries: shaded/Impl.class", e.getMessage());
+        }
+    }
+
+    private Map<String, EntryStruct> run(List<EntryStruct> entries) throws IOException {
+        final Map<String, EntryStruct> output = new LinkedHashMap<String, EntryStruct>();
+        repackager.run(entries, new EntrySink() {
+            public void write(EntryStruct entry) {
+                output.put(entry.name, entry);
+            }
+        });
+        return output;
+    }
+
+    private static EntryStruct entry(String name, byte[] data) {
+        EntryStruct struct = new EntryStruct();
+        struct.name = name;
+        struct.data = data;
+        return struct;
+    }
+
+    private static byte[] createClass(String name, String api) {
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_5, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", new String[]{ api });
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+}
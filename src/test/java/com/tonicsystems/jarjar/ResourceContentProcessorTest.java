@@ -0,0 +1,86 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.EntryStruct;
+import junit.framework.*;
+
+import java.util.*;
+
+public class ResourceContentProcessorTest
+extends TestCase
+{
+    protected ResourceContentProcessor processor;
+
+    protected void setUp() {
+        Rule rule = new Rule();
+        rule.setPattern("org.example.**");
+        rule.setResult("shaded.@1");
+        List<Rule> rules = Collections.singletonList(rule);
+        processor = new ResourceContentProcessor(new PackageRemapper(rules, false), PrefixMatcher.forPatterns(rules));
+    }
+
+    public void testServiceFile() throws Exception {
+        EntryStruct struct = process("META-INF/services/org.example.Api",
+            "# org.example.Impl is the default\norg.example.Impl\r\norg.other.Impl\n  org.example.impl.Other$Inner  \n");
+        assertEquals("META-INF/services/shaded.Api", struct.name);
+        assertEquals("# shaded.Impl is the default\nshaded.Impl\r\norg.other.Impl\n  shaded.impl.Other$Inner  \n",
+            new String(struct.data, "UTF-8"));
+    }
+
+    public void testSpringMappings() throws Exception {
+        EntryStruct struct = process("META-INF/spring.schemas",
+            "http\\://www.example.org/schema/x.xsd=org/example/config/x.xsd\n");
+        assertEquals("http\\://www.example.org/schema/x.xsd=shaded/config/x.xsd\n", new String(struct.data, "UTF-8"));
+        struct = process("META-INF/spring.handlers", "http\\://www.example.org/schema/x=org.example.XHandler.\n");
+        assertEquals("http\\://www.example.org/schema/x=shaded.XHandler.\n", new String(struct.data, "UTF-8"));
+    }
+
+    public void testOtherResourcesUnchanged() throws Exception {
+        EntryStruct struct = process("org/example/readme.txt", "org.example.Impl");
+        assertEquals("org.example.Impl", new String(struct.data, "UTF-8"));
+        processor.setResources(Arrays.asList("**/*.txt"));
+        struct = process("org/example/readme.txt", "org.example.Impl");
+        assertEquals("shaded.Impl", new String(struct.data, "UTF-8"));
+    }
+
+    public void testMerge() throws Exception {
+        byte[] merged = processor.merge("a.A\nb.B".getBytes("UTF-8"), "b.B\nc.C\n".getBytes("UTF-8"));
+        assertEquals("a.A\nb.B\nc.C\n", new String(merged, "UTF-8"));
+    }
+
+    public void testPrefixMatcher() {
+        PrefixMatcher matcher = new PrefixMatcher(Arrays.asList("org/example/", "com.acme", "caf\u00e9."));
+        assertTrue(matcher.find("Lorg.example.Foo;"));
+        assertTrue(matcher.find("see com/acme"));
+        assertTrue(matcher.find("caf\u00e9/x"));
+        assertFalse(matcher.find("org.exampl"));
+        assertFalse(matcher.find("Unable to load class"));
+        assertTrue(matcher.startsWith("/org/example/x.xml", 1));
+        assertFalse(matcher.startsWith("xorg.example.X", 0));
+        assertFalse(matcher.matchesAll());
+        assertTrue(new PrefixMatcher(Arrays.asList("org.", "")).matchesAll());
+    }
+
+    private EntryStruct process(String name, String content) throws Exception {
+        EntryStruct struct = new EntryStruct();
+        struct.name = name;
+        struct.data = content.getBytes("UTF-8");
+        assertTrue(processor.process(struct));
+        return struct;
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import com.tonicsystems.jarjar.util.CompressionPolicy;
+import junit.framework.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ShadedCacheTest
+extends TestCase
+{
+    private final List<File> files = new ArrayList<File>();
+
+    protected void tearDown() {
+        for (File file : files)
+            delete(file);
+    }
+
+    public void testKey() throws Exception {
+        List<PatternElement> rules = RulesFileParser.parse("rule org.example.** shaded.@1\n");
+        String key = ShadedCache.getKey(rules, false, null, "1.0");
+        assertTrue(key, key.matches("[0-9a-f]{16}"));
+        assertEquals(key, ShadedCache.getKey(RulesFileParser.parse("rule org.example.** shaded.@1\n"), false, null, "1.0"));
+        assertFalse(key.equals(ShadedCache.getKey(RulesFileParser.parse("rule org.example.** other.@1\n"), false, null, "1.0")));
+        assertFalse(key.equals(ShadedCache.getKey(rules, true, null, "1.0")));
+        assertFalse(key.equals(ShadedCache.getKey(rules, false, Arrays.asList("**.txt"), "1.0")));
+        assertFalse(key.equals(ShadedCache.getKey(rules, false, null, "1.1")));
+        assertFalse(key.equals(ShadedCache.getKey(rules, false, null, null)));
+    }
+
+    public void testPut() throws Exception {
+        File directory = createTempDirectory();
+        File jar = createFile(MainProcessorTest.createJar());
+        ShadedCache cache = new ShadedCache(directory, "0123456789abcdef");
+        File file = cache.getFile("org.example", "example", "1.0", null);
+        assertEquals(new File(directory, "org/example/example/1.0/example-1.0-0123456789abcdef.jar"), file);
+        assertEquals(new File(directory, "org/example/example/1.0/example-1.0-tests-0123456789abcdef.jar"),
+                     cache.getFile("org.example", "example", "1.0", "tests"));
+        assertFalse(file.exists());
+
+        MainProcessor proc = MainProcessorTest.createProcessor("rule org.example.** shaded.@1\n");
+        cache.put(jar, file, proc, new CompressionPolicy());
+        proc.close();
+        assertTrue(file.isFile());
+        assertEquals(Arrays.asList("data/", "data/a.txt", "data/b.txt", "shaded/", "shaded/Main.class",
+                                   "shaded/Unused.class", "shaded/Used.class"),
+                     new ArrayList<String>(MainProcessorTest.readJar(file).keySet()));
+        // found again by the same key only, and nothing else left in the directory
+        assertEquals(file, new ShadedCache(directory, "0123456789abcdef").getFile("org.example", "example", "1.0", null));
+        assertFalse(new ShadedCache(directory, "fedcba9876543210").getFile("org.example", "example", "1.0", null).exists());
+        assertEquals(Collections.singletonList(file.getName()), Arrays.asList(file.getParentFile().list()));
+
+        try {
+            cache.put(createFile("<project/>".getBytes("UTF-8")), cache.getFile("org.example", "pom", "1.0", null),
+                      MainProcessorTest.createProcessor(""), new CompressionPolicy());
+            fail();
+        } catch (IOException e) {
+            assertFalse(cache.getFile("org.example", "pom", "1.0", null).exists());
+            assertEquals(0, new File(directory, "org/example/pom/1.0").list().length);
+        }
+    }
+
+    public void testSplice() throws Exception {
+        Map<String, byte[]> hull = new LinkedHashMap<String, byte[]>();
+        hull.put("META-INF/MANIFEST.MF", bytes("Manifest-Version: 1.0\n"));
+        hull.put("META-INF/services/shaded.Api", bytes("shaded.Hull\n"));
+        hull.put("shaded/Same.class", bytes("from a snapshot"));
+        Map<String, byte[]> first = new LinkedHashMap<String, byte[]>();
+        first.put("META-INF/MANIFEST.MF", bytes("Manifest-Version: 1.0\nCreated-By: first\n"));
+        first.put("META-INF/FIRST.SF", bytes("signature"));
+        first.put("META-INF/services/shaded.Api", bytes("shaded.First\n"));
+        first.put("shaded/Same.class", bytes("from a release"));
+        first.put("shaded/First.class", bytes("first"));
+        Map<String, byte[]> second = new LinkedHashMap<String, byte[]>();
+        second.put("shaded/First.class", bytes("second"));
+        second.put("shaded/Second.class", bytes("second"));
+
+        File to = createFile(new byte[0]);
+        MainProcessor proc = MainProcessorTest.createProcessor("rule org.example.** shaded.@1\n");
+        ShadedCache.splice(createJar(hull), Arrays.asList(createJar(first), createJar(second)), to, proc,
+                           new CompressionPolicy());
+        proc.close();
+
+        Map<String, byte[]> entries = MainProcessorTest.readJar(to);
+        assertEquals(new TreeSet<String>(Arrays.asList("META-INF/MANIFEST.MF", "META-INF/services/shaded.Api",
+                                                       "shaded/Same.class", "shaded/First.class",
+                                                       "shaded/Second.class")),
+                     new TreeSet<String>(entries.keySet()));
+        // the hull, with the project and its snapshots, comes before the release dependencies
+        assertEquals("Manifest-Version: 1.0\n", string(entries.get("META-INF/MANIFEST.MF")));
+        assertEquals("from a snapshot", string(entries.get("shaded/Same.class")));
+        assertEquals("first", string(entries.get("shaded/First.class")));
+        assertEquals("shaded.Hull\nshaded.First\n", string(entries.get("META-INF/services/shaded.Api")));
+    }
+
+    public void testSpliceWithoutManifest() throws Exception {
+        Map<String, byte[]> hull = new LinkedHashMap<String, byte[]>();
+        hull.put("shaded/Main.class", bytes("main"));
+        Map<String, byte[]> shaded = new LinkedHashMap<String, byte[]>();
+        shaded.put("META-INF/MANIFEST.MF", bytes("Manifest-Version: 1.0\n"));
+        shaded.put("shaded/Other.class", bytes("other"));
+
+        File to = createFile(new byte[0]);
+        MainProcessor proc = MainProcessorTest.createProcessor("rule org.example.** shaded.@1\n");
+        ShadedCache.splice(createJar(hull), Collections.singletonList(createJar(shaded)), to, proc,
+                           new CompressionPolicy());
+        proc.close();
+        assertEquals(new TreeSet<String>(Arrays.asList("shaded/Main.class", "shaded/Other.class")),
+                     new TreeSet<String>(MainProcessorTest.readJar(to).keySet()));
+    }
+
+    private File createJar(Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            zip.putNextEntry(new ZipEntry(entry.getKey()));
+            zip.write(entry.getValue());
+        }
+        zip.close();
+        return createFile(bytes.toByteArray());
+    }
+
+    private File createFile(byte[] data) throws IOException {
+        File file = File.createTempFile("jarjar", ".jar");
+        files.add(file);
+        OutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+        return file;
+    }
+
+    private File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("jarjar", ".cache");
+        directory.delete();
+        directory.mkdir();
+        files.add(directory);
+        return directory;
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+
+    private static byte[] bytes(String s) throws UnsupportedEncodingException {
+        return s.getBytes("UTF-8");
+    }
+
+    private static String string(byte[] b) throws UnsupportedEncodingException {
+        return new String(b, "UTF-8");
+    }
+}
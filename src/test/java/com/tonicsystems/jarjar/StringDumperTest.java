@@ -0,0 +1,80 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar;
+
+import junit.framework.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class StringDumperTest
+extends TestCase
+{
+    // compiled by javac, which puts the Utf8 entry of a string after it in the constant pool
+    private static class Sample
+    {
+        @Deprecated
+        String[] values() {
+            return new String[]{ "first literal", "second literal" };
+        }
+    }
+
+    public void testConstants() throws Exception {
+        assertEquals(Arrays.asList("\t\"first literal\"", "\t\"second literal\""), strings(false));
+    }
+
+    public void testLineNumbers() throws Exception {
+        List<String> lines = strings(true);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches("\t\\d+: \"first literal\""));
+        assertTrue(lines.get(1), lines.get(1).matches("\t\\d+: \"second literal\""));
+    }
+
+    // the strings printed for Sample, without the class name
+    private static List<String> strings(boolean lineNumbers) throws IOException {
+        String name = Sample.class.getName().replace('.', '/') + ".class";
+        File jar = File.createTempFile("jarjar", ".jar");
+        try {
+            ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(jar));
+            zip.putNextEntry(new ZipEntry(name));
+            InputStream in = StringDumperTest.class.getResourceAsStream("/" + name);
+            try {
+                byte[] buf = new byte[0x2000];
+                for (int n; (n = in.read(buf)) >= 0;)
+                    zip.write(buf, 0, n);
+            } finally {
+                in.close();
+            }
+            zip.close();
+
+            Properties properties = new Properties();
+            properties.setProperty("lines", String.valueOf(lineNumbers));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            new Main(properties, new PrintStream(out), new PrintStream(err), null).strings(jar.getPath(), "literal");
+            assertEquals("", err.toString());
+
+            List<String> lines = new ArrayList<String>(Arrays.asList(out.toString().split("\\r?\\n")));
+            assertEquals(Sample.class.getName(), lines.remove(0));
+            return lines;
+        } finally {
+            jar.delete();
+        }
+    }
+}
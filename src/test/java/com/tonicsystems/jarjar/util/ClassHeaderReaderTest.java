@@ -0,0 +1,115 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import junit.framework.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ClassHeaderReaderTest
+extends TestCase
+{
+    public void testStream() throws Exception {
+        ClassHeaderReader header = new ClassHeaderReader();
+        header.read(new ByteArrayInputStream(createClass()));
+        assertHeader(header);
+    }
+
+    public void testBuffer() throws Exception {
+        byte[] bytes = createClass();
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length + 7);
+        buf.put(new byte[7]).put(bytes);
+        buf.position(7);
+        ClassHeaderReader header = new ClassHeaderReader();
+        header.read(buf);
+        assertEquals(7, buf.position());
+        assertHeader(header);
+    }
+
+    public void testGenerics() throws Exception {
+        ClassHeaderReader header = new ClassHeaderReader();
+        header.read(getClass().getResourceAsStream("/Generics.class"));
+        assertEquals("Generics", header.getClassName());
+        assertEquals("java/lang/Object", header.getSuperName());
+    }
+
+    public void testTruncated() throws Exception {
+        byte[] bytes = createClass();
+        ClassHeaderReader header = new ClassHeaderReader();
+        try {
+            header.read(ByteBuffer.wrap(bytes, 0, bytes.length - 7).slice());
+            fail();
+        } catch (EOFException e) {
+            // expected
+        }
+        try {
+            header.read(ByteBuffer.wrap(new byte[2]));
+            fail();
+        } catch (ClassFormatError e) {
+            // expected
+        }
+    }
+
+    private static void assertHeader(ClassHeaderReader header) {
+        assertEquals(0x21, header.getAccess());
+        assertEquals("org/example/Lambda\u00e9", header.getClassName());
+        assertEquals("java/lang/Object", header.getSuperName());
+        assertEquals(Arrays.asList("java/lang/Runnable"), Arrays.asList(header.getInterfaces()));
+    }
+
+    // hand-written so that every constant pool tag up to Package (20) is present
+    private static byte[] createClass() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0);
+        out.writeShort(55);
+        out.writeShort(24);                                    // constant_pool_count
+        out.writeByte(1); out.writeUTF("org/example/Lambda\u00e9"); // #1
+        out.writeByte(7); out.writeShort(1);                   // #2 Class
+        out.writeByte(1); out.writeUTF("java/lang/Object");    // #3
+        out.writeByte(7); out.writeShort(3);                   // #4 Class
+        out.writeByte(1); out.writeUTF("java/lang/Runnable");  // #5
+        out.writeByte(7); out.writeShort(5);                   // #6 Class
+        out.writeByte(1); out.writeUTF("run");                 // #7
+        out.writeByte(1); out.writeUTF("()V");                 // #8
+        out.writeByte(12); out.writeShort(7); out.writeShort(8); // #9 NameAndType
+        out.writeByte(10); out.writeShort(4); out.writeShort(9); // #10 Methodref
+        out.writeByte(15); out.writeByte(6); out.writeShort(10); // #11 MethodHandle
+        out.writeByte(16); out.writeShort(8);                  // #12 MethodType
+        out.writeByte(17); out.writeShort(0); out.writeShort(9); // #13 Dynamic
+        out.writeByte(18); out.writeShort(0); out.writeShort(9); // #14 InvokeDynamic
+        out.writeByte(19); out.writeShort(5);                  // #15 Module
+        out.writeByte(20); out.writeShort(5);                  // #16 Package
+        out.writeByte(5); out.writeLong(1L);                   // #17 Long (+#18)
+        out.writeByte(6); out.writeDouble(1.0);                // #19 Double (+#20)
+        out.writeByte(3); out.writeInt(1);                     // #21 Integer
+        out.writeByte(4); out.writeFloat(1f);                  // #22 Float
+        out.writeByte(8); out.writeShort(7);                   // #23 String
+        out.writeShort(0x21);                                  // access
+        out.writeShort(2);                                     // this_class
+        out.writeShort(4);                                     // super_class
+        out.writeShort(1);                                     // interfaces_count
+        out.writeShort(6);
+        out.writeShort(0);                                     // fields_count
+        out.writeShort(0);                                     // methods_count
+        out.writeShort(0);                                     // attributes_count
+        out.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,179 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class ClassPathIteratorTest
+extends TestCase
+{
+    private File dir;
+
+    protected void setUp() throws IOException {
+        dir = File.createTempFile("jarjar", ".cp");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    protected void tearDown() {
+        delete(dir);
+    }
+
+    public void testDirectoriesAndJars() throws Exception {
+        createJar("first.jar", "org/A.class", "org/a.txt", "org/B.class");
+        createFile("classes/org/C.class", 0);
+        createFile("classes/org/readme.txt", 0);
+        createFile("classes/org/sub/D.class", 0);
+        createJar("second.zip", "E.class");
+
+        ClassPathIterator cp = new ClassPathIterator(dir, "first.jar:classes:second.zip", ":");
+        List<String> names = new ArrayList<String>();
+        try {
+            while (cp.hasNext()) {
+                ClassPathEntry entry = cp.next();
+                names.add(entry.getName());
+                assertEquals(entry.getName(), new String(read(entry), "UTF-8"));
+            }
+        } finally {
+            cp.close();
+        }
+        assertEquals(5, names.size());
+        assertEquals(Arrays.asList("org/A.class", "org/B.class"), names.subList(0, 2));
+        // in the order the directories are listed in
+        assertEquals(new HashSet<String>(Arrays.asList("C.class", "D.class")), new HashSet<String>(names.subList(2, 4)));
+        assertEquals("E.class", names.get(4));
+        assertFalse(cp.hasNext());
+    }
+
+    public void testStreamAfterHasNext() throws Exception {
+        createJar("first.jar", "A.class", "B.class");
+        createJar("second.jar", "C.class");
+
+        ClassPathIterator cp = new ClassPathIterator(dir, "first.jar:second.jar", ":");
+        try {
+            ClassPathEntry a = cp.next();
+            // still in the same archive
+            assertTrue(cp.hasNext());
+            assertEquals("A.class", new String(read(a), "UTF-8"));
+            ClassPathEntry b = cp.next();
+            // the first archive is closed once the next one is opened
+            assertTrue(cp.hasNext());
+            try {
+                read(b);
+                fail();
+            } catch (IOException e) {
+                // expected
+            } catch (IllegalStateException e) {
+                // expected
+            }
+            assertEquals("C.class", new String(read(cp.next()), "UTF-8"));
+        } finally {
+            cp.close();
+        }
+    }
+
+    public void testSplit() throws Exception {
+        createJar("big.jar", 100000, "A.class");
+        createJar("small.jar", 100, "B.class");
+        createFile("classes/C.class", 100000);
+        String classPath = "big.jar:small.jar:classes";
+
+        List<ClassPathIterator> parts = ClassPathIterator.split(dir, classPath, ":", 2);
+        assertEquals(2, parts.size());
+        // the directory weighs as much as its classes
+        assertEquals(Arrays.asList("A.class", "B.class"), names(parts.get(0)));
+        assertEquals(Arrays.asList("C.class"), names(parts.get(1)));
+
+        List<String> all = new ArrayList<String>();
+        for (ClassPathIterator part : ClassPathIterator.split(dir, classPath, ":", 10))
+            all.addAll(names(part));
+        assertEquals(names(new ClassPathIterator(dir, classPath, ":")), all);
+        assertEquals(1, ClassPathIterator.split(dir, classPath, ":", 1).size());
+        try {
+            ClassPathIterator.split(dir, classPath, ":", 0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static List<String> names(ClassPathIterator cp) throws IOException {
+        List<String> names = new ArrayList<String>();
+        try {
+            while (cp.hasNext())
+                names.add(cp.next().getName());
+        } finally {
+            cp.close();
+        }
+        return names;
+    }
+
+    // entries that contain their own name
+    private void createJar(String name, String... entries) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(dir, name)));
+        for (String entry : entries) {
+            zip.putNextEntry(new ZipEntry(entry));
+            zip.write(entry.getBytes("UTF-8"));
+        }
+        zip.close();
+    }
+
+    // entries of random data, which does not compress
+    private void createJar(String name, int size, String entry) throws IOException {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(new File(dir, name)));
+        zip.putNextEntry(new ZipEntry(entry));
+        zip.write(data);
+        zip.close();
+    }
+
+    // a file that contains its name, padded to size
+    private void createFile(String path, int size) throws IOException {
+        File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        byte[] name = file.getName().getBytes("UTF-8");
+        OutputStream out = new FileOutputStream(file);
+        out.write(name);
+        if (size > name.length)
+            out.write(new byte[size - name.length]);
+        out.close();
+    }
+
+    private static byte[] read(ClassPathEntry entry) throws IOException {
+        InputStream in = entry.openStream();
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IoUtil.pipe(in, out, new byte[0x2000]);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children)
+                delete(child);
+        }
+        file.delete();
+    }
+}
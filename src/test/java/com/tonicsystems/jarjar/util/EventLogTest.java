@@ -0,0 +1,145 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.concurrent.CountDownLatch;
+
+public class EventLogTest
+extends TestCase
+{
+    public void testRecords() throws Exception {
+        StringWriter w = new StringWriter();
+        EventLog log = new EventLog(w, EventLog.Level.DEBUG);
+        log.setEntry("org/example/A.class");
+        log.log(EventLog.Kind.CHANGED, "org.example.B", "foo.B", "org.**");
+        log.setEntry("org/example/C.class");
+        log.log(EventLog.Kind.CHANGED, "org.example.B", "foo.B", "org.**");
+        log.log(EventLog.Kind.CHANGED, "tab\there", "x", null);
+        log.close();
+        assertEquals("DEBUG\tCHANGED\torg/example/A.class\torg.example.B\tfoo.B\torg.**\n"
+            + "DEBUG\tCHANGED\torg/example/C.class\ttab\\there\tx\t\n", w.toString());
+    }
+
+    public void testLevel() throws Exception {
+        StringWriter w = new StringWriter();
+        EventLog log = new EventLog(w, EventLog.Level.INFO);
+        assertFalse(log.isEnabled(EventLog.Kind.RENAMED));
+        log.log(EventLog.Kind.RENAMED, "a", "b", null);
+        log.log(EventLog.Kind.CONFLICT, "a/x.txt", "b/x.txt", null);
+        log.close();
+        assertEquals("WARN\tCONFLICT\t\ta/x.txt\tb/x.txt\t\n", w.toString());
+    }
+
+    public void testDuplicatesNotQueued() throws Exception {
+        // the writer waits, so duplicates that were queued would fill the queue and block the logger
+        final CountDownLatch written = new CountDownLatch(1);
+        final StringWriter w = new StringWriter();
+        final EventLog log = new EventLog(new FilterWriter(w) {
+            public void write(String s, int off, int len) throws IOException {
+                try {
+                    written.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                super.write(s, off, len);
+            }
+        }, EventLog.Level.DEBUG);
+        Thread logger = new Thread() {
+            public void run() {
+                for (int i = 0; i < 1000000; i++)
+                    log.log(EventLog.Kind.RENAMED, "org/example/A", "foo/A", "org.**");
+            }
+        };
+        logger.start();
+        logger.join(10000);
+        boolean blocked = logger.isAlive();
+        written.countDown();
+        logger.join();
+        log.close();
+        assertFalse(blocked);
+        assertEquals("DEBUG\tRENAMED\t\torg/example/A\tfoo/A\torg.**\n", w.toString());
+    }
+
+    public void testBoundedQueue() throws Exception {
+        final CountDownLatch written = new CountDownLatch(1);
+        final StringWriter w = new StringWriter();
+        final EventLog log = new EventLog(new FilterWriter(w) {
+            public void write(String s, int off, int len) throws IOException {
+                try {
+                    written.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+                super.write(s, off, len);
+            }
+        }, EventLog.Level.DEBUG);
+        Thread logger = new Thread() {
+            public void run() {
+                for (int i = 0; i < 100000; i++)
+                    log.log(EventLog.Kind.RENAMED, "org/example/A" + i, "foo/A" + i, "org.**");
+            }
+        };
+        logger.start();
+        // waits for the writer once the queue is full
+        logger.join(2000);
+        boolean blocked = logger.isAlive();
+        written.countDown();
+        logger.join();
+        log.close();
+        assertTrue(blocked);
+        assertEquals(100000, w.toString().split("\n").length);
+    }
+
+    public void testFlushedOnExit() throws Exception {
+        File file = File.createTempFile("jarjar", ".log");
+        try {
+            String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+            Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                                                 Unclosed.class.getName(), file.getPath())
+                .redirectErrorStream(true).start();
+            process.getOutputStream().close();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            IoUtil.pipe(process.getInputStream(), output, new byte[0x2000]);
+            assertEquals(output.toString(), 0, process.waitFor());
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                int count = 0;
+                while (r.readLine() != null)
+                    count++;
+                assertEquals(Unclosed.COUNT, count);
+            } finally {
+                r.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    // logs to a file and exits without closing the log
+    public static class Unclosed
+    {
+        static final int COUNT = 10000;
+
+        public static void main(String[] args) throws IOException {
+            EventLog log = new EventLog(new File(args[0]), EventLog.Level.DEBUG);
+            for (int i = 0; i < COUNT; i++)
+                log.log(EventLog.Kind.RENAMED, "org/example/A" + i, "foo/A" + i, "org.**");
+        }
+    }
+}
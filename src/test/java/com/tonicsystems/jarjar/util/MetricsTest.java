@@ -0,0 +1,96 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+
+public class MetricsTest
+extends TestCase
+{
+    public void testProcessorStats() throws Exception {
+        Metrics metrics = new Metrics();
+        JarProcessor proc = new MeasuredJarProcessor("Test", new JarProcessor() {
+            public boolean process(EntryStruct struct) {
+                if (struct.name.startsWith("removed"))
+                    return false;
+                if (struct.name.startsWith("renamed"))
+                    struct.name = "new/" + struct.name;
+                struct.data = new byte[struct.data.length * 2];
+                return true;
+            }
+        }, metrics);
+        assertTrue(proc.process(createStruct("kept.txt", 10)));
+        assertTrue(proc.process(createStruct("renamed.txt", 20)));
+        assertFalse(proc.process(createStruct("removed.txt", 30)));
+        metrics.getCounter("things").increment();
+        metrics.getCounter("things").add(2);
+        Metrics.Phase phase = metrics.startPhase("transform");
+        phase.setBytesIn(100);
+        phase.setBytesOut(50);
+        phase.end();
+
+        Metrics.ProcessorStats stats = metrics.getProcessorStats("Test");
+        assertEquals(3, stats.entries.get());
+        assertEquals(1, stats.renamed.get());
+        assertEquals(1, stats.removed.get());
+        assertEquals(60, stats.bytesIn.get());
+        assertEquals(60, stats.bytesOut.get());
+        assertEquals(3, metrics.getCounter("things").get());
+
+        List<String> lines = metrics.summarize();
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0), lines.get(0).matches("transform +\\d+ ms wall +\\d+ ms cpu +100 bytes in +50 bytes out"));
+        assertTrue(lines.get(1), lines.get(1).matches("Test +\\d+ ms wall +\\d+ ms cpu +3 entries +1 renamed +1 removed"));
+    }
+
+    public void testJson() throws Exception {
+        Metrics metrics = new Metrics();
+        Metrics.Phase phase = metrics.startPhase("uber-zip \"1\"");
+        phase.setBytesIn(7);
+        phase.end();
+        new MeasuredJarProcessor("Test", new JarProcessor() {
+            public boolean process(EntryStruct struct) {
+                return true;
+            }
+        }, metrics).process(createStruct("a.txt", 5));
+        metrics.getCounter("entries.processed").increment();
+        StringWriter w = new StringWriter();
+        metrics.writeJson(w);
+        String json = w.toString().replaceAll("\"(wall|cpu)Nanos\": \\d+", "\"$1Nanos\": 0");
+        assertEquals("{\n"
+            + "  \"phases\": [\n"
+            + "    {\"name\": \"uber-zip \\\"1\\\"\", \"wallNanos\": 0, \"cpuNanos\": 0, \"bytesIn\": 7, \"bytesOut\": 0}\n"
+            + "  ],\n"
+            + "  \"processors\": [\n"
+            + "    {\"name\": \"Test\", \"wallNanos\": 0, \"cpuNanos\": 0, \"entries\": 1, \"renamed\": 0, \"removed\": 0, "
+            + "\"bytesIn\": 5, \"bytesOut\": 5}\n"
+            + "  ],\n"
+            + "  \"counters\": {\n"
+            + "    \"entries.processed\": 1\n"
+            + "  }\n"
+            + "}\n", json);
+    }
+
+    private static EntryStruct createStruct(String name, int size) {
+        EntryStruct struct = new EntryStruct();
+        struct.name = name;
+        struct.data = new byte[size];
+        return struct;
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * Copyright 2007 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.tonicsystems.jarjar.util;
+
+import junit.framework.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+public class ParallelZipWriterTest
+extends TestCase
+{
+    public void testEntries() throws Exception {
+        Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+        expected.put("META-INF/", new byte[0]);
+        expected.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\n\r\n".getBytes("UTF-8"));
+        expected.put("empty.txt", new byte[0]);
+        expected.put("org/example/Caf\u00e9.class", repeat("cafebabe", 10000));
+        byte[] random = new byte[100000];
+        new Random(42).nextBytes(random);
+        expected.put("random.bin", random);
+        expected.put("logo.PNG", repeat("png", 1000));
+
+        File file = File.createTempFile("jarjar", ".zip");
+        try {
+            write(file, expected);
+            ZipFile zip = new ZipFile(file);
+            try {
+                List<String> names = new ArrayList<String>();
+                for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+                    ZipEntry entry = e.nextElement();
+                    names.add(entry.getName());
+                    assertTrue(Arrays.equals(expected.get(entry.getName()), read(zip.getInputStream(entry))));
+                }
+                assertEquals(new ArrayList<String>(expected.keySet()), names);
+                assertEquals(ZipEntry.DEFLATED, zip.getEntry("org/example/Caf\u00e9.class").getMethod());
+                assertEquals(ZipEntry.STORED, zip.getEntry("random.bin").getMethod());
+                assertEquals(ZipEntry.STORED, zip.getEntry("logo.PNG").getMethod());
+                assertTrue(zip.getEntry("META-INF/").isDirectory());
+            } finally {
+                zip.close();
+            }
+
+            // local headers must agree with the central directory
+            ZipInputStream in = new ZipInputStream(new FileInputStream(file));
+            try {
+                int count = 0;
+                for (ZipEntry entry; (entry = in.getNextEntry()) != null; count++)
+                    assertTrue(Arrays.equals(expected.get(entry.getName()), read(in)));
+                assertEquals(expected.size(), count);
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testManyEntries() throws Exception {
+        Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+        for (int i = 0; i < 70000; i++)
+            expected.put("e" + i, new byte[]{ (byte)i });
+        File file = File.createTempFile("jarjar", ".zip");
+        try {
+            write(file, expected);
+            ZipFile zip = new ZipFile(file);
+            try {
+                assertEquals(70000, zip.size());
+                assertEquals(69999 & 0xFF, zip.getInputStream(zip.getEntry("e69999")).read());
+            } finally {
+                zip.close();
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testCopyRaw() throws Exception {
+        Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+        expected.put("org/example/Caf\u00e9.class", repeat("cafebabe", 10000));
+        expected.put("stored.txt", "x".getBytes("UTF-8"));
+        File file = File.createTempFile("jarjar", ".zip");
+        File copy = File.createTempFile("jarjar", ".zip");
+        try {
+            write(file, expected);
+            RawZipFile raw = new RawZipFile(file);
+            ParallelZipWriter writer = new ParallelZipWriter(new FileOutputStream(copy), 1, new CompressionPolicy());
+            try {
+                for (RawZipFile.Entry entry : raw.getEntries()) {
+                    assertTrue(Arrays.equals(expected.get(entry.getName()), raw.read(entry)));
+                    writer.writeRaw(entry, raw.readRaw(entry));
+                }
+            } finally {
+                writer.close();
+                raw.close();
+            }
+            ZipFile zip = new ZipFile(copy);
+            try {
+                for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                    ZipEntry zipEntry = zip.getEntry(entry.getKey());
+                    assertTrue(Arrays.equals(entry.getValue(), read(zip.getInputStream(zipEntry))));
+                    assertEquals(1234567890000L / 2000, zipEntry.getTime() / 2000);
+                }
+            } finally {
+                zip.close();
+            }
+        } finally {
+            file.delete();
+            copy.delete();
+        }
+    }
+
+    public void testSharedThreads() throws Exception {
+        // writers used at the same time compress on the same threads
+        List<ParallelZipWriter> writers = new ArrayList<ParallelZipWriter>();
+        List<ByteArrayOutputStream> outs = new ArrayList<ByteArrayOutputStream>();
+        for (int i = 0; i < 8; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            outs.add(out);
+            writers.add(new ParallelZipWriter(out, new CompressionPolicy()));
+        }
+        for (int i = 0; i < 100; i++) {
+            for (ParallelZipWriter writer : writers)
+                writer.write("e" + i + ".txt", 1234567890000L, repeat("entry " + i, 100));
+        }
+        assertTrue(countThreads("jarjar-deflate-shared") <= Runtime.getRuntime().availableProcessors());
+        for (ParallelZipWriter writer : writers)
+            writer.close();
+        for (ByteArrayOutputStream out : outs) {
+            ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+            int count = 0;
+            while (in.getNextEntry() != null)
+                count++;
+            assertEquals(100, count);
+        }
+    }
+
+    public void testCloseFailure() throws Exception {
+        // the central directory is written on close, which must report that it could not
+        ParallelZipWriter writer = new ParallelZipWriter(new OutputStream() {
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        }, new CompressionPolicy());
+        writer.write("entry.txt", 1234567890000L, repeat("entry", 100));
+        try {
+            writer.close();
+            fail();
+        } catch (IOException e) {
+            assertEquals("disk full", e.getMessage());
+        }
+        // closed anyway
+        writer.close();
+        try {
+            writer.write("other.txt", 1234567890000L, new byte[0]);
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static int countThreads(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name))
+                count++;
+        }
+        return count;
+    }
+
+    private static void write(File file, Map<String, byte[]> entries) throws IOException {
+        ParallelZipWriter writer = new ParallelZipWriter(new FileOutputStream(file), 3, new CompressionPolicy());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet())
+            writer.write(entry.getKey(), 1234567890000L, entry.getValue());
+        writer.close();
+    }
+
+    private static byte[] repeat(String s, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            sb.append(s);
+        return sb.toString().getBytes();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IoUtil.pipe(in, out, new byte[0x2000]);
+        return out.toByteArray();
+    }
+}